@@ -15,13 +15,29 @@ package homeguardian.system;
  * 
  * Subclasses must implement handleMessageFromClient() to define specific
  * server behavior for incoming messages.
+ *
+ * The server runs in one of the ConnectionModes: the default thread-per-client
+ * blocking mode, or a non-blocking mode where a ServerSocketChannel and one
+ * selector thread per core service every connection. Subclasses receive the
+ * same callbacks in both modes.
  */
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class AbstractServer {
 
@@ -29,9 +45,23 @@ public abstract class AbstractServer {
     private int port;                     // Port number server listens on
     private ServerSocket serverSocket;    // Server socket object
     private boolean listening = false;    // True if server is currently listening
+    private ConnectionMode connectionMode = ConnectionMode.THREAD_PER_CLIENT;
+    private ThreadFactory threadFactory;  // Custom strategy; null = derived from connectionMode
 
-    // List of connected clients
-    protected final List<ConnectionToClient> clients = new ArrayList<>();
+    // ---- OUTBOUND QUEUES ----
+    private int outboundQueueCapacity = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private ExecutorService writerExecutor;  // Drains client queues in the blocking modes
+
+    // ---- NIO_SELECTOR MODE ----
+    private ServerSocketChannel serverChannel;   // Non-blocking listening channel
+    private NioEventLoop[] eventLoops;           // One selector thread per core
+    private int nextLoop = 0;                    // Round-robin index for new channels
+
+    // Connected clients keyed by their stable connection ID. Iteration is
+    // lock-free, so broadcasts never contend with accepts or disconnects.
+    private final ConcurrentMap<Long, ConnectionToClient> clients = new ConcurrentHashMap<>();
+    private final AtomicLong nextConnectionId = new AtomicLong(1);
 
     /**
      * Constructor to initialize the server with a port
@@ -43,6 +73,63 @@ public abstract class AbstractServer {
     // NEW: allow subclasses (like Server) to access the port
     public int getPort() { return port; }
 
+    public ConnectionMode getConnectionMode() { return connectionMode; }
+
+    /**
+     * Choose how connections are serviced. Must be called before listen().
+     */
+    public void setConnectionMode(ConnectionMode connectionMode) {
+        if (listening) {
+            throw new IllegalStateException("Cannot change connection mode while listening");
+        }
+        this.connectionMode = connectionMode;
+    }
+
+    /**
+     * Override the threads used for the accept loop and each blocking client
+     * connection. Must be called before listen(); null restores the default
+     * for the current ConnectionMode.
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        if (listening) {
+            throw new IllegalStateException("Cannot change thread factory while listening");
+        }
+        this.threadFactory = threadFactory;
+    }
+
+    public int getOutboundQueueCapacity() { return outboundQueueCapacity; }
+    public OverflowPolicy getOverflowPolicy() { return overflowPolicy; }
+
+    /**
+     * Maximum number of messages queued per client before the overflow
+     * policy applies. Affects connections accepted afterwards.
+     */
+    public void setOutboundQueueCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.outboundQueueCapacity = capacity;
+    }
+
+    /**
+     * What to do when a client's outbound queue is full. Affects connections
+     * accepted afterwards.
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Threads used by the blocking connection modes.
+     */
+    protected ThreadFactory getThreadFactory() {
+        if (threadFactory != null) return threadFactory;
+        if (connectionMode == ConnectionMode.VIRTUAL_THREAD_PER_CLIENT) {
+            return Thread.ofVirtual().name("hg-client-", 0).factory();
+        }
+        return Thread.ofPlatform().name("hg-client-", 0).factory();
+    }
+
     // ---- SERVER LISTENING METHODS ----
 
     /**
@@ -51,24 +138,30 @@ public abstract class AbstractServer {
     public void listen() throws IOException {
         if (listening) return; // Already listening
 
+        if (connectionMode == ConnectionMode.NIO_SELECTOR) {
+            listenNonBlocking();
+            return;
+        }
+
         serverSocket = new ServerSocket(port);
         listening = true;
         serverStarted(); // Callback: server started
 
+        ThreadFactory factory = getThreadFactory();
+        writerExecutor = Executors.newCachedThreadPool(factory);
+
         // Thread to accept incoming connections continuously
-        Thread acceptThread = new Thread(() -> {
+        Thread acceptThread = factory.newThread(() -> {
             try {
                 while (listening) {
                     Socket clientSocket = serverSocket.accept(); // Wait for client
                     ConnectionToClient client = new ConnectionToClient(clientSocket, this);
 
-                    // Add client to list
-                    synchronized (clients) {
-                        clients.add(client);
-                    }
+                    // Register client under its connection ID
+                    clients.put(client.getConnectionId(), client);
 
                     // Start a thread for handling this client
-                    new Thread(client).start();
+                    factory.newThread(client).start();
                 }
             } catch (Exception e) {
                 if (listening) listeningException(e); // Callback: error while listening
@@ -78,12 +171,60 @@ public abstract class AbstractServer {
         acceptThread.start();
     }
 
+    /**
+     * Open a non-blocking listening channel and start one selector thread per core.
+     * The first loop also accepts; accepted channels are spread round-robin.
+     */
+    private void listenNonBlocking() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(new InetSocketAddress(port));
+
+        int loopCount = Math.max(1, Runtime.getRuntime().availableProcessors());
+        eventLoops = new NioEventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            eventLoops[i] = new NioEventLoop(this, "hg-selector-" + i);
+            eventLoops[i].start();
+        }
+
+        listening = true;
+        serverStarted(); // Callback: server started
+
+        eventLoops[0].register(serverChannel, SelectionKey.OP_ACCEPT, this);
+    }
+
+    /**
+     * Called by the accepting event loop when the listening channel is ready.
+     */
+    void acceptNonBlocking() {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+
+                NioEventLoop loop = eventLoops[nextLoop];
+                nextLoop = (nextLoop + 1) % eventLoops.length;
+
+                ConnectionToClient client = new ConnectionToClient(channel, loop, this);
+                clients.put(client.getConnectionId(), client);
+                loop.register(channel, SelectionKey.OP_READ, client);
+            }
+        } catch (IOException e) {
+            if (listening) listeningException(e); // Callback: error while listening
+        }
+    }
+
     /**
      * Stop listening for new connections
      */
     public void stopListening() {
         listening = false;
-        try { serverSocket.close(); } catch (IOException ignore) {}
+        if (serverChannel != null) {
+            try { serverChannel.close(); } catch (IOException ignore) {}
+        } else {
+            try { serverSocket.close(); } catch (IOException ignore) {}
+        }
         serverStopped(); // Callback: server stopped
     }
 
@@ -93,11 +234,20 @@ public abstract class AbstractServer {
     public void close() {
         stopListening();
 
-        synchronized (clients) {
-            for (ConnectionToClient c : clients) {
-                c.close(); // Close individual client connections
+        for (ConnectionToClient c : clients.values()) {
+            c.close(); // Close individual client connections
+        }
+        clients.clear();
+
+        if (eventLoops != null) {
+            for (NioEventLoop loop : eventLoops) {
+                loop.shutdown();
             }
-            clients.clear();
+            eventLoops = null;
+        }
+        if (writerExecutor != null) {
+            writerExecutor.shutdown();
+            writerExecutor = null;
         }
 
         serverClosed(); // Callback: server fully closed
@@ -106,22 +256,56 @@ public abstract class AbstractServer {
     // ---- CLIENT COMMUNICATION ----
 
     /**
-     * Send a message to all connected clients
+     * Executor that runs the per-connection writers in the blocking modes.
+     */
+    Executor getWriterExecutor() {
+        return writerExecutor;
+    }
+
+    /**
+     * Send a message to all connected clients.
+     * Only enqueues on each connection; slow clients never block the caller.
+     * A client that falls behind may miss it (see OverflowPolicy).
      */
     public void sendToAllClients(Object msg) {
-        synchronized (clients) {
-            for (ConnectionToClient c : clients) {
-                c.sendToClient(msg);
-            }
+        for (ConnectionToClient c : clients.values()) {
+            c.sendBroadcast(msg);
         }
     }
 
     /**
-     * Get a specific client connection by index
+     * Get a specific client connection by its connection ID
+     * @return the connection, or null if it is not (or no longer) connected
+     */
+    public ConnectionToClient getClientConnection(long connectionId) {
+        return clients.get(connectionId);
+    }
+
+    /**
+     * Live, read-only view of the connected clients
+     */
+    public Collection<ConnectionToClient> getClientConnections() {
+        return Collections.unmodifiableCollection(clients.values());
+    }
+
+    public int getNumberOfClients() {
+        return clients.size();
+    }
+
+    // ---- CONNECTION REGISTRY ----
+
+    long nextConnectionId() {
+        return nextConnectionId.getAndIncrement();
+    }
+
+    /**
+     * Called by a connection when it ends: drop it from the registry, then
+     * notify the subclass.
      */
-    public ConnectionToClient getClientConnection(int index) {
-        synchronized (clients) {
-            return clients.get(index);
+    void connectionClosed(ConnectionToClient client, boolean wasConnected) {
+        clients.remove(client.getConnectionId(), client);
+        if (wasConnected) {
+            clientDisconnected(client); // Callback: client disconnected
         }
     }
 
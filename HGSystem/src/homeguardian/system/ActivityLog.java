@@ -46,48 +46,75 @@ package homeguardian.system;
 	
 	
 
-	import java.util.ArrayList;
+	import java.io.Serializable;
+	import java.time.Instant;
+	import java.time.ZoneId;
+	import java.time.format.DateTimeFormatter; // Added so the client can receive a date and time message
+	import java.util.Collections;
 	import java.util.Date;
 	import java.util.List;
-	import java.text.SimpleDateFormat; // Added so the client can receive a date and time message
 	/**
 	 * Represents a single activity entry within the Home Guardian system.
 	 * Attributes: logID, user, actionType, deviceName, deviceID, message, timestamp.
+	 *
+	 * Every log is stored in a bounded, lock-free ActivityLogBuffer as it is
+	 * created; its sequence number is its position in that buffer.
+	 * Logs are Serializable so pages of them can be sent to clients (LOGS).
+	 *
+	 * A log keeps its message as a LogTemplate plus two arguments and its time
+	 * as epoch milliseconds. The message text, log ID and date are only built
+	 * when a reader asks for them, so creating a log allocates little more
+	 * than the record itself.
 	 */
-	public class ActivityLog {
+	public class ActivityLog implements Serializable {
+
+	    private static final long serialVersionUID = 1L;
 
 	    // -------------------------
 	    // STATIC STORAGE
 	    // -------------------------
-	    private static int nextLogId = 1;              // Auto-incremented ID
-	    private static final List<ActivityLog> logStore = new ArrayList<>(); // Stores all logs
+	    private static volatile ActivityLogBuffer logStore =   // Stores the most recent logs
+	            new ActivityLogBuffer(ActivityLogBuffer.DEFAULT_CAPACITY, LogOverflowPolicy.OVERWRITE_OLDEST);
+
+	    private static final DateTimeFormatter DATE_TIME_FORMAT =
+	            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
 
 	    // -------------------------
 	    // ATTRIBUTES
 	    // -------------------------
-	    private final String logID;
+	    private final long sequence;      // Position in the log store, 0 if dropped
 	    private final String user;
 	    private final String actionType;
 	    private final String deviceName;
 	    private final String deviceID;
-	    private final String message;
-	    private final Date timeStamp;     // Human-readable
+	    private final LogTemplate template;
+	    private final String arg0;        // Template arguments {0} and {1}
+	    private final String arg1;
 	    private final long timestamp;     // Milliseconds
+	    private transient String message; // Rendered on first getMessage()
 
 	    // -------------------------
 	    // CONSTRUCTORS
 	    // -------------------------
-	    public ActivityLog(String user, String actionType, String deviceName, String deviceID, String message) {
-	        this.logID = "LOG: " + nextLogId++;
+	    public ActivityLog(String user, String actionType, String deviceName, String deviceID,
+	                       LogTemplate template, String arg0, String arg1) {
+	        ActivityLogBuffer store = logStore;
+	        this.sequence = store.claim();
 	        this.user = user;
 	        this.actionType = actionType;
 	        this.deviceName = deviceName;
 	        this.deviceID = deviceID;
-	        this.message = message;
-	        this.timeStamp = new Date();
-	        this.timestamp = this.timeStamp.getTime();
+	        this.template = template;
+	        this.arg0 = arg0;
+	        this.arg1 = arg1;
+	        this.timestamp = System.currentTimeMillis();
+
+	        store.publish(this); // Automatically store the log
+	        logActivity(this);
+	    }
 
-	        logActivity(this); // Automatically store the log
+	    public ActivityLog(String user, String actionType, String deviceName, String deviceID, String message) {
+	        this(user, actionType, deviceName, deviceID, LogTemplate.TEXT, message, null);
 	    }
 
 	   
@@ -105,13 +132,52 @@ package homeguardian.system;
 	    public ActivityLog(String message) {
 	        this("SYSTEM/UNKNOWN", "Basic Log", "N/A", "N/A", message);
 	    }
+
+	    /**
+	     * Rebuilds a stored log (e.g. read back from a DurableActivityLog).
+	     * It is not added to the log store again.
+	     */
+	    ActivityLog(long sequence, long timestamp, String user, String actionType,
+	                String deviceName, String deviceID, String message) {
+	        this(sequence, timestamp, user, actionType, deviceName, deviceID, LogTemplate.TEXT, message, null);
+	    }
+
+	    /**
+	     * As above, with the message as template and arguments (e.g. read
+	     * back from an ActivityLogArchive).
+	     */
+	    ActivityLog(long sequence, long timestamp, String user, String actionType, String deviceName,
+	                String deviceID, LogTemplate template, String arg0, String arg1) {
+	        this.sequence = sequence;
+	        this.user = user;
+	        this.actionType = actionType;
+	        this.deviceName = deviceName;
+	        this.deviceID = deviceID;
+	        this.template = template;
+	        this.arg0 = arg0;
+	        this.arg1 = arg1;
+	        this.timestamp = timestamp;
+	    }
 	    
 	 // -------------------------
 	    // GETTERS
 	    // -------------------------
 
+	    public long getSequence() {
+	        return sequence;
+	    }
+
+	    /**
+	     * Time-sortable ID in the IdGenerator layout: the timestamp plus the
+	     * low bits of the store sequence, so it needs no extra field and is the
+	     * same for a log read back from disk.
+	     */
+	    public long getId() {
+	        return IdGenerator.pack(timestamp, sequence);
+	    }
+
 	    public String getLogID() {
-	        return logID;
+	        return "LOG: " + IdGenerator.toString(getId());
 	    }
 
 	    public String getUser() {
@@ -137,11 +203,27 @@ package homeguardian.system;
 	    }
 
 	    public String getMessage() {
-	        return message;
+	        String text = message;
+	        if (text == null) {
+	            text = template.render(arg0, arg1);
+	            message = text; // Racing readers render the same text
+	        }
+	        return text;
+	    }
+
+	    public LogTemplate getTemplate() {
+	        return template;
+	    }
+
+	    /**
+	     * Template argument {0} or {1}, e.g. the command of COMMAND_EXECUTED.
+	     */
+	    public String getArgument(int index) {
+	        return index == 0 ? arg0 : arg1;
 	    }
 
 	    public Date getTimeStamp() {
-	        return timeStamp;
+	        return new Date(timestamp);
 	    }
 
 	    public long getTimestamp() {
@@ -153,8 +235,7 @@ package homeguardian.system;
 	     * Example: "2025-12-02 14:35:10"
 	     */
 	    public String getFormattedDateTime() {
-	        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-	        return sdf.format(timeStamp);
+	        return DATE_TIME_FORMAT.format(Instant.ofEpochMilli(timestamp));
 	    }
 
 	    // -------------------------
@@ -162,7 +243,34 @@ package homeguardian.system;
 	    // -------------------------
 
 	    /**
-	     * Store a log entry in the central store and print a concise line.
+	     * Replace the log store, e.g. to change its capacity or overflow policy.
+	     * Logs already stored stay in the old store.
+	     */
+	    public static void configureStore(int capacity, LogOverflowPolicy policy) {
+	        logStore = new ActivityLogBuffer(capacity, policy);
+	    }
+
+	    /**
+	     * As above, numbering new logs from firstSequence (e.g. after a restart).
+	     */
+	    public static void configureStore(int capacity, LogOverflowPolicy policy, long firstSequence) {
+	        logStore = new ActivityLogBuffer(capacity, policy, firstSequence);
+	    }
+
+	    public static ActivityLogBuffer getStore() {
+	        return logStore;
+	    }
+
+	    /**
+	     * Cursor over the stored logs, oldest first, for reading without a copy.
+	     */
+	    public static ActivityLogCursor cursor() {
+	        return logStore.cursor();
+	    }
+
+	    /**
+	     * Echo a log entry to the console log (entries are stored when created).
+	     * Logged at DEBUG for the SYSTEM category; the console sink adds the date & time.
 	     *
 	     * NOTE: Printing is also restricted to what the client essentially cares about:
 	     *   - Device name
@@ -170,17 +278,15 @@ package homeguardian.system;
 	     *   - Date & time
 	     */
 	    public static void logActivity(ActivityLog logEntry) {
-	        logStore.add(logEntry);
-
-	        System.out.println(
+	        if (!Log.isEnabled(LogCategory.SYSTEM, LogLevel.DEBUG)) return;
+	        Log.debug(LogCategory.SYSTEM,
 	            "LOGGING -> Device: " + logEntry.getDeviceName()
 	            + " | Action: " + logEntry.getActionType()
-	            + " | DateTime: " + logEntry.getFormattedDateTime()
 	        );
 	    }
 
 	    /**
-	     * Return all logs as an unmodifiable copy.
+	     * Return the stored logs as a copy (at most the store's capacity).
 	     * The server can then map each ActivityLog into the three fields
 	     * the GUI needs:
 	     *   - getDeviceName()
@@ -188,7 +294,33 @@ package homeguardian.system;
 	     *   - getFormattedDateTime()
 	     */
 	    public static List<ActivityLog> getAllLogs() {
-	        return List.copyOf(logStore);
+	        return logStore.snapshot();
+	    }
+
+	    /**
+	     * A device's logs still in the store, oldest first. Read from the
+	     * store's index: the logs are shared, not copied or kept per device.
+	     */
+	    public static List<ActivityLog> getDeviceLogs(String deviceID) {
+	        return Collections.unmodifiableList(
+	                query(Long.MIN_VALUE, Long.MAX_VALUE, deviceID, null, 0, Integer.MAX_VALUE).getLogs());
+	    }
+
+	    /**
+	     * A user's logs still in the store, oldest first (see getDeviceLogs).
+	     */
+	    public static List<ActivityLog> getUserLogs(String user) {
+	        return Collections.unmodifiableList(
+	                query(Long.MIN_VALUE, Long.MAX_VALUE, null, user, 0, Integer.MAX_VALUE).getLogs());
+	    }
+
+	    /**
+	     * Stored logs after afterSequence matching the given filters (null or
+	     * Long.MIN_VALUE / Long.MAX_VALUE for "any"), from the store's index.
+	     */
+	    public static LogPage query(long fromTime, long toTime, String deviceID, String user,
+	                                long afterSequence, int limit) {
+	        return logStore.query(fromTime, toTime, deviceID, user, afterSequence, limit);
 	    }
 	}
 /**
@@ -0,0 +1,451 @@
+package homeguardian.system;
+
+/**
+ * Class: ActivityLogArchive
+ *
+ * Description:
+ * Compact, read-only file of cold ActivityLog records, stored column by
+ * column in blocks of up to 4096 records:
+ *
+ *   header   int magic ("HGA1"), int version
+ *   blocks   int count, then per column (ArchiveColumn order) its
+ *            compressed and raw length, then the column data
+ *   footer   int blockCount, then per block: offset, length, count,
+ *            min/max timestamp, first/last sequence
+ *   trailer  long footerOffset, int magic
+ *
+ * Column data is Deflater-compressed. Sequences and timestamps are stored
+ * as varint deltas. Every string column is dictionary-encoded per block: a
+ * block's distinct values once, then one varint code per record. Messages
+ * are stored as their LogTemplate and arguments (LogTemplate.parse() for
+ * records that only have the text), so an argument such as the command of
+ * COMMAND_EXECUTED can be counted without decoding message text.
+ *
+ * scan() skips blocks outside the time range using the footer and reads
+ * only the requested columns of the rest. The Writer writes to a
+ * temporary file and renames it when closed, so an archive is either
+ * complete or absent.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class ActivityLogArchive implements Closeable {
+
+    public static final String SUFFIX = ".hga";
+    public static final int BLOCK_SIZE = 4096;
+
+    private static final int MAGIC = 0x48474131;     // "HGA1"
+    private static final int VERSION = 1;
+    private static final int COLUMNS = ArchiveColumn.values().length;
+    private static final int FOOTER_ENTRY_SIZE = 8 + 4 + 4 + 8 * 4;
+    private static final int TRAILER_SIZE = 12;
+
+    // ---- READER STATE ----
+    private final FileChannel channel;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private final int[] blockCounts;
+    private final long[] blockMinTime;
+    private final long[] blockMaxTime;
+    private final long[] blockFirstSequence;
+    private final long[] blockLastSequence;
+    private final Inflater inflater = new Inflater();
+
+    // ---- READING ----
+
+    public static ActivityLogArchive open(Path file) throws IOException {
+        return new ActivityLogArchive(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    private ActivityLogArchive(FileChannel channel) throws IOException {
+        this.channel = channel;
+        try {
+            long size = channel.size();
+            if (size < 8 + 4 + TRAILER_SIZE || readFully(0, 8).getInt() != MAGIC) {
+                throw new IOException("Not an activity log archive");
+            }
+            ByteBuffer trailer = readFully(size - TRAILER_SIZE, TRAILER_SIZE);
+            long footerOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC) {
+                throw new IOException("Incomplete activity log archive");
+            }
+            ByteBuffer footer = readFully(footerOffset, (int) (size - TRAILER_SIZE - footerOffset));
+            int blocks = footer.getInt();
+            blockOffsets = new long[blocks];
+            blockLengths = new int[blocks];
+            blockCounts = new int[blocks];
+            blockMinTime = new long[blocks];
+            blockMaxTime = new long[blocks];
+            blockFirstSequence = new long[blocks];
+            blockLastSequence = new long[blocks];
+            for (int b = 0; b < blocks; b++) {
+                blockOffsets[b] = footer.getLong();
+                blockLengths[b] = footer.getInt();
+                blockCounts[b] = footer.getInt();
+                blockMinTime[b] = footer.getLong();
+                blockMaxTime[b] = footer.getLong();
+                blockFirstSequence[b] = footer.getLong();
+                blockLastSequence[b] = footer.getLong();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException io ? io : new IOException("Corrupt activity log archive", e);
+        }
+    }
+
+    /**
+     * Decode the given columns of every block that may hold records in
+     * [fromTime, toTime]; blocks outside it are skipped unread. Rows of a
+     * visited block are not filtered by time.
+     * @return number of blocks decoded
+     */
+    public synchronized int scan(long fromTime, long toTime, EnumSet<ArchiveColumn> columns,
+                                 Consumer<ArchiveBlock> visitor) throws IOException {
+        int decoded = 0;
+        for (int b = 0; b < blockOffsets.length; b++) {
+            if (blockMaxTime[b] < fromTime || blockMinTime[b] > toTime) continue;
+            visitor.accept(readBlock(b, columns));
+            decoded++;
+        }
+        return decoded;
+    }
+
+    /**
+     * Every record in [fromTime, toTime], oldest first.
+     */
+    public List<ActivityLog> read(long fromTime, long toTime) throws IOException {
+        List<ActivityLog> result = new ArrayList<>();
+        scan(fromTime, toTime, EnumSet.allOf(ArchiveColumn.class), block -> {
+            for (int row = 0; row < block.size(); row++) {
+                long timestamp = block.getTimestamp(row);
+                if (timestamp >= fromTime && timestamp <= toTime) result.add(block.toActivityLog(row));
+            }
+        });
+        return result;
+    }
+
+    private ArchiveBlock readBlock(int b, EnumSet<ArchiveColumn> columns) throws IOException {
+        int directorySize = 4 + COLUMNS * 8;
+        ByteBuffer directory = readFully(blockOffsets[b], directorySize);
+        ArchiveBlock block = new ArchiveBlock(directory.getInt());
+
+        long position = blockOffsets[b] + directorySize;
+        for (ArchiveColumn column : ArchiveColumn.values()) {
+            int compressed = directory.getInt();
+            int raw = directory.getInt();
+            if (columns.contains(column)) {
+                ByteBuffer data = inflate(readFully(position, compressed), raw);
+                decodeColumn(column, data, block);
+            }
+            position += compressed;
+        }
+        return block;
+    }
+
+    private static void decodeColumn(ArchiveColumn column, ByteBuffer data, ArchiveBlock block) {
+        int count = block.size();
+        switch (column) {
+            case SEQUENCE:
+            case TIMESTAMP:
+                long[] values = new long[count];
+                long value = 0;
+                for (int row = 0; row < count; row++) {
+                    value += zigZagDecode(readVarLong(data));
+                    values[row] = value;
+                }
+                if (column == ArchiveColumn.SEQUENCE) block.setSequences(values);
+                else block.setTimestamps(values);
+                break;
+            default:
+                String[] dictionary = new String[(int) readVarLong(data)];
+                for (int i = 0; i < dictionary.length; i++) {
+                    byte[] bytes = new byte[(int) readVarLong(data)];
+                    data.get(bytes);
+                    dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+                }
+                int[] codes = new int[count];
+                for (int row = 0; row < count; row++) {
+                    codes[row] = (int) readVarLong(data) - 1;   // 0 is null
+                }
+                block.setStrings(column, dictionary, codes);
+        }
+    }
+
+    private ByteBuffer inflate(ByteBuffer compressed, int rawLength) throws IOException {
+        byte[] raw = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                int read = inflater.inflate(raw, n, rawLength - n);
+                if (read == 0 && inflater.needsInput()) break;
+                n += read;
+            }
+            if (n != rawLength) throw new IOException("Truncated archive column");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive column", e);
+        }
+        return ByteBuffer.wrap(raw);
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of archive");
+            }
+        }
+        return buffer.flip();
+    }
+
+    // ---- METADATA ----
+
+    public int getBlockCount() {
+        return blockOffsets.length;
+    }
+
+    public long getRecordCount() {
+        long total = 0;
+        for (int count : blockCounts) total += count;
+        return total;
+    }
+
+    public long getMinTimestamp() {
+        long min = Long.MAX_VALUE;
+        for (long time : blockMinTime) min = Math.min(min, time);
+        return min;
+    }
+
+    public long getMaxTimestamp() {
+        long max = Long.MIN_VALUE;
+        for (long time : blockMaxTime) max = Math.max(max, time);
+        return max;
+    }
+
+    public long getFirstSequence() {
+        return blockFirstSequence.length == 0 ? 0 : blockFirstSequence[0];
+    }
+
+    public long getLastSequence() {
+        return blockLastSequence.length == 0 ? 0 : blockLastSequence[blockLastSequence.length - 1];
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+
+    // ---- WRITING ----
+
+    public static Writer create(Path file) throws IOException {
+        return new Writer(file);
+    }
+
+    /**
+     * Appends records (in sequence order) and writes the archive on close().
+     */
+    public static class Writer implements Closeable {
+
+        private final Path file;
+        private final Path temp;
+        private final FileChannel out;
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        private final ByteArrayOutputStream footer = new ByteArrayOutputStream();
+        private final String[] args = new String[2];
+        private int blockCount;
+        private long position;
+
+        // ---- Current block ----
+        private final long[] sequences = new long[BLOCK_SIZE];
+        private final long[] timestamps = new long[BLOCK_SIZE];
+        private final String[][] strings = new String[COLUMNS][BLOCK_SIZE];
+        private int size;
+
+        private Writer(Path file) throws IOException {
+            this.file = file;
+            this.temp = file.resolveSibling(file.getFileName() + ".tmp");
+            this.out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            write(ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION).flip());
+        }
+
+        public void append(ActivityLog record) throws IOException {
+            LogTemplate template = record.getTemplate();
+            if (template == LogTemplate.TEXT) {
+                template = LogTemplate.parse(record.getMessage(), args);
+            } else {
+                args[0] = record.getArgument(0);
+                args[1] = record.getArgument(1);
+            }
+            sequences[size] = record.getSequence();
+            timestamps[size] = record.getTimestamp();
+            strings[ArchiveColumn.USER.ordinal()][size] = record.getUser();
+            strings[ArchiveColumn.ACTION_TYPE.ordinal()][size] = record.getActionType();
+            strings[ArchiveColumn.DEVICE_NAME.ordinal()][size] = record.getDeviceName();
+            strings[ArchiveColumn.DEVICE_ID.ordinal()][size] = record.getDeviceID();
+            strings[ArchiveColumn.TEMPLATE.ordinal()][size] = template.name();
+            strings[ArchiveColumn.ARG0.ordinal()][size] = args[0];
+            strings[ArchiveColumn.ARG1.ordinal()][size] = args[1];
+            if (++size == BLOCK_SIZE) {
+                writeBlock();
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (size == 0) return;
+            long blockOffset = position;
+            long minTime = Long.MAX_VALUE;
+            long maxTime = Long.MIN_VALUE;
+            for (int row = 0; row < size; row++) {
+                minTime = Math.min(minTime, timestamps[row]);
+                maxTime = Math.max(maxTime, timestamps[row]);
+            }
+
+            // ---- Encode and compress each column ----
+            ByteBuffer directory = ByteBuffer.allocate(4 + COLUMNS * 8).putInt(size);
+            List<byte[]> columnData = new ArrayList<>(COLUMNS);
+            ByteArrayOutputStream raw = new ByteArrayOutputStream(size * 4);
+            for (ArchiveColumn column : ArchiveColumn.values()) {
+                raw.reset();
+                switch (column) {
+                    case SEQUENCE:  encodeDeltas(sequences, raw); break;
+                    case TIMESTAMP: encodeDeltas(timestamps, raw); break;
+                    default:        encodeDictionary(strings[column.ordinal()], raw);
+                }
+                byte[] compressed = compress(raw.toByteArray());
+                directory.putInt(compressed.length).putInt(raw.size());
+                columnData.add(compressed);
+            }
+            write(directory.flip());
+            for (byte[] data : columnData) {
+                write(ByteBuffer.wrap(data));
+            }
+
+            ByteBuffer entry = ByteBuffer.allocate(FOOTER_ENTRY_SIZE)
+                    .putLong(blockOffset).putInt((int) (position - blockOffset)).putInt(size)
+                    .putLong(minTime).putLong(maxTime).putLong(sequences[0]).putLong(sequences[size - 1]);
+            footer.write(entry.array());
+            blockCount++;
+            size = 0;
+        }
+
+        private void encodeDeltas(long[] values, ByteArrayOutputStream raw) {
+            long previous = 0;
+            for (int row = 0; row < size; row++) {
+                writeVarLong(raw, zigZagEncode(values[row] - previous));
+                previous = values[row];
+            }
+        }
+
+        private void encodeDictionary(String[] values, ByteArrayOutputStream raw) {
+            Map<String, Integer> codes = new HashMap<>();
+            List<String> dictionary = new ArrayList<>();
+            int[] rowCodes = new int[size];
+            for (int row = 0; row < size; row++) {
+                String value = values[row];
+                if (value == null) continue;   // Code 0
+                Integer code = codes.get(value);
+                if (code == null) {
+                    code = dictionary.size() + 1;
+                    codes.put(value, code);
+                    dictionary.add(value);
+                }
+                rowCodes[row] = code;
+            }
+            writeVarLong(raw, dictionary.size());
+            for (String value : dictionary) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                writeVarLong(raw, bytes.length);
+                raw.write(bytes, 0, bytes.length);
+            }
+            for (int row = 0; row < size; row++) {
+                writeVarLong(raw, rowCodes[row]);
+            }
+        }
+
+        private byte[] compress(byte[] raw) {
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 16);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                compressed.write(chunk, 0, n);
+            }
+            return compressed.toByteArray();
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += out.write(buffer);
+            }
+        }
+
+        /**
+         * Write the last block and the footer, then move the file into place.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                writeBlock();
+                long footerOffset = position;
+                write(ByteBuffer.allocate(4).putInt(blockCount).flip());
+                write(ByteBuffer.wrap(footer.toByteArray()));
+                write(ByteBuffer.allocate(TRAILER_SIZE).putLong(footerOffset).putInt(MAGIC).flip());
+                out.force(true);
+            } finally {
+                out.close();
+                deflater.end();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    // ---- VARINTS ----
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    private static long zigZagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
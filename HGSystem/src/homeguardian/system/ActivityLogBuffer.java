@@ -0,0 +1,203 @@
+package homeguardian.system;
+
+/**
+ * Class: ActivityLogBuffer
+ *
+ * Description:
+ * Fixed-capacity, multi-producer ring buffer of ActivityLog records.
+ *
+ * Appending is lock-free: a producer claims the next sequence number from an
+ * AtomicLong and stores the record in slot (sequence & mask). Each record
+ * carries its own sequence, so a reader can tell whether a slot still holds
+ * the record it wants, was already overwritten, or is claimed but not yet
+ * filled. Readers use an ActivityLogCursor and never copy the buffer.
+ *
+ * When the buffer wraps, the LogOverflowPolicy applies:
+ *  - OVERWRITE_OLDEST (default) replaces the oldest record
+ *  - DROP_NEWEST refuses new records until a consumer (e.g. a durable
+ *    writer) releases the old ones with release()
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class ActivityLogBuffer {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final AtomicReferenceArray<ActivityLog> slots;
+    private final int mask;
+    private final LogOverflowPolicy policy;
+
+    private final long firstSequence;
+    private final AtomicLong nextSequence;
+    private final AtomicLong released;     // Highest sequence that may be overwritten
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final ActivityLogIndex index;
+
+    /**
+     * @param capacity number of records kept, rounded up to a power of two
+     */
+    public ActivityLogBuffer(int capacity, LogOverflowPolicy policy) {
+        this(capacity, policy, 1);
+    }
+
+    /**
+     * @param firstSequence sequence of the first record, e.g. one past the
+     *                      last record recovered from a DurableActivityLog
+     */
+    public ActivityLogBuffer(int capacity, LogOverflowPolicy policy, long firstSequence) {
+        if (capacity < 1 || capacity > (1 << 30) || firstSequence < 1) {
+            throw new IllegalArgumentException("Invalid log capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.policy = policy;
+        this.firstSequence = firstSequence;
+        this.nextSequence = new AtomicLong(firstSequence);
+        this.released = new AtomicLong(firstSequence - 1);
+        this.index = new ActivityLogIndex(this, firstSequence);
+    }
+
+    // ---- PRODUCERS ----
+
+    /**
+     * Reserve the sequence number for a new record.
+     * @return the sequence, or 0 if the record is dropped (DROP_NEWEST, buffer full)
+     */
+    long claim() {
+        if (policy == LogOverflowPolicy.OVERWRITE_OLDEST) {
+            return nextSequence.getAndIncrement();
+        }
+        while (true) {
+            long seq = nextSequence.get();
+            if (seq - released.get() > slots.length()) {
+                droppedCount.incrementAndGet();
+                return 0;
+            }
+            if (nextSequence.compareAndSet(seq, seq + 1)) {
+                return seq;
+            }
+        }
+    }
+
+    /**
+     * Store a record under the sequence it claimed.
+     */
+    void publish(ActivityLog record) {
+        long seq = record.getSequence();
+        if (seq <= 0) return; // Dropped at claim time
+        int index = (int) (seq & mask);
+        while (true) {
+            ActivityLog current = slots.get(index);
+            if (current != null && current.getSequence() > seq) {
+                return; // A newer record already took the slot; ours is overwritten
+            }
+            if (slots.compareAndSet(index, current, record)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Allow records up to and including sequence to be overwritten
+     * (DROP_NEWEST). Has no effect with OVERWRITE_OLDEST.
+     */
+    public void release(long sequence) {
+        released.accumulateAndGet(sequence, Math::max);
+    }
+
+    // ---- READERS ----
+
+    /**
+     * Record stored under the given sequence, or null if it is not (or no
+     * longer) in the buffer.
+     */
+    public ActivityLog get(long sequence) {
+        if (sequence <= 0) return null;
+        ActivityLog record = slots.get((int) (sequence & mask));
+        return record != null && record.getSequence() == sequence ? record : null;
+    }
+
+    /**
+     * Record in the slot for sequence, whatever its sequence is. Used by cursors.
+     */
+    ActivityLog slotFor(long sequence) {
+        return slots.get((int) (sequence & mask));
+    }
+
+    /**
+     * Cursor starting at the oldest retained record.
+     */
+    public ActivityLogCursor cursor() {
+        return new ActivityLogCursor(this, getOldestSequence());
+    }
+
+    /**
+     * Cursor starting at the given sequence (e.g. one past the last record seen).
+     */
+    public ActivityLogCursor cursorFrom(long sequence) {
+        return new ActivityLogCursor(this, Math.max(sequence, getOldestSequence()));
+    }
+
+    /**
+     * Copy of the retained records, oldest first.
+     */
+    public List<ActivityLog> snapshot() {
+        List<ActivityLog> copy = new ArrayList<>();
+        ActivityLogCursor cursor = cursor();
+        ActivityLog record;
+        while ((record = cursor.poll()) != null) {
+            copy.add(record);
+        }
+        return copy;
+    }
+
+    /**
+     * Retained records after afterSequence matching every given filter,
+     * oldest first, answered from this buffer's ActivityLogIndex.
+     *
+     * @param fromTime earliest timestamp (inclusive), Long.MIN_VALUE for any
+     * @param toTime   latest timestamp (inclusive), Long.MAX_VALUE for any
+     * @param deviceID device ID, or null for any
+     * @param user     user, or null for any
+     */
+    public LogPage query(long fromTime, long toTime, String deviceID, String user,
+                         long afterSequence, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid page size: " + limit);
+        }
+        return index.query(fromTime, toTime, deviceID, user, afterSequence, limit);
+    }
+
+    /**
+     * Sequence the next record will get.
+     */
+    public long getNextSequence() {
+        return nextSequence.get();
+    }
+
+    /**
+     * Oldest sequence that may still be in the buffer.
+     */
+    public long getOldestSequence() {
+        return Math.max(firstSequence, nextSequence.get() - slots.length());
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    public LogOverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /** Records refused because the buffer was full (DROP_NEWEST) */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
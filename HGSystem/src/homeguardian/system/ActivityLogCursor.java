@@ -0,0 +1,62 @@
+package homeguardian.system;
+
+/**
+ * Class: ActivityLogCursor
+ *
+ * Description:
+ * Reads an ActivityLogBuffer in sequence order without copying or locking.
+ * A cursor that falls more than the buffer's capacity behind skips ahead to
+ * the oldest retained record and counts what it missed. poll() returns null
+ * once the cursor has caught up; it can be polled again later to continue.
+ * A cursor is used by one thread at a time.
+ */
+public class ActivityLogCursor {
+
+    private final ActivityLogBuffer buffer;
+    private long next;          // Sequence of the next record to return
+    private long missedCount;   // Records overwritten before this cursor reached them
+
+    ActivityLogCursor(ActivityLogBuffer buffer, long start) {
+        this.buffer = buffer;
+        this.next = start;
+    }
+
+    /**
+     * Next record, or null if there is none yet.
+     */
+    public ActivityLog poll() {
+        while (true) {
+            long end = buffer.getNextSequence();
+            if (next >= end) return null;
+
+            long oldest = buffer.getOldestSequence();
+            if (next < oldest) {
+                missedCount += oldest - next;
+                next = oldest;
+            }
+
+            ActivityLog record = buffer.slotFor(next);
+            if (record == null || record.getSequence() < next) {
+                return null; // Claimed but not yet stored; try again later
+            }
+            if (record.getSequence() > next) {
+                missedCount++; // Overwritten while we were reading
+                next++;
+                continue;
+            }
+            next++;
+            return record;
+        }
+    }
+
+    /**
+     * Sequence of the next record this cursor will return.
+     */
+    public long getPosition() {
+        return next;
+    }
+
+    public long getMissedCount() {
+        return missedCount;
+    }
+}
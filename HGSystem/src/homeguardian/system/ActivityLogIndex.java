@@ -0,0 +1,257 @@
+package homeguardian.system;
+
+/**
+ * Class: ActivityLogIndex
+ *
+ * Description:
+ * Query index over one ActivityLogBuffer, by time, device ID and user.
+ *
+ *  - Time: a sparse index with one entry per block of 256 sequences,
+ *    holding the block's smallest timestamp and the largest timestamp seen
+ *    up to and including the block. A time range maps to a sequence range
+ *    by binary search instead of a scan.
+ *  - Device ID and user: posting lists of sequence numbers per key, in
+ *    sequence order.
+ *
+ * A query reads only the candidate records from the smallest posting list
+ * (or from the time range when no attribute is given), so its cost follows
+ * the size of the result, not the number of stored logs.
+ *
+ * Creating a log does not touch the index. The index follows the buffer
+ * with an ActivityLogCursor and catches up at the start of each query;
+ * entries for overwritten records are trimmed as the buffer moves on.
+ * Timestamps are taken as logs are created, so they follow sequence order
+ * except between logs created at the same moment on different threads.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+class ActivityLogIndex {
+
+    static final int BLOCK_SHIFT = 8;  // 256 sequences per time block
+
+    private final ActivityLogBuffer buffer;
+    private final ActivityLogCursor cursor;
+
+    // ---- TIME INDEX (ring of blocks, keyed by sequence >>> BLOCK_SHIFT) ----
+    private final long[] blockMinTime;
+    private final long[] blockMaxTime;    // Largest timestamp up to and including the block
+    private final int blockMask;
+    private long firstBlock;              // Oldest block still indexed
+    private long lastBlock = -1;          // Newest block, -1 before the first record
+
+    // ---- ATTRIBUTE INDEXES ----
+    private final Map<String, Postings> byDevice = new HashMap<>();
+    private final Map<String, Postings> byUser = new HashMap<>();
+    private long indexedSinceSweep;
+
+    ActivityLogIndex(ActivityLogBuffer buffer, long firstSequence) {
+        this.buffer = buffer;
+        this.cursor = new ActivityLogCursor(buffer, firstSequence);
+        int blocks = Integer.highestOneBit((buffer.getCapacity() >>> BLOCK_SHIFT) + 2) << 1;
+        this.blockMinTime = new long[blocks];
+        this.blockMaxTime = new long[blocks];
+        this.blockMask = blocks - 1;
+        this.firstBlock = firstSequence >>> BLOCK_SHIFT;
+    }
+
+    /**
+     * Logs after afterSequence matching every given filter, oldest first.
+     *
+     * @param fromTime earliest timestamp (inclusive), Long.MIN_VALUE for any
+     * @param toTime   latest timestamp (inclusive), Long.MAX_VALUE for any
+     * @param deviceID device ID, or null for any
+     * @param user     user, or null for any
+     * @param limit    maximum number of logs returned
+     */
+    synchronized LogPage query(long fromTime, long toTime, String deviceID, String user,
+                               long afterSequence, int limit) {
+        catchUp();
+        long end = cursor.getPosition();   // One past the last indexed sequence
+        long start = Math.max(afterSequence + 1, Math.max(buffer.getOldestSequence(), firstSequenceAt(fromTime)));
+
+        // ---- Pick the smallest source of candidates ----
+        Postings source = null;
+        if (deviceID != null) {
+            source = byDevice.get(deviceID);
+            if (source == null) return emptyPage(afterSequence, end);
+        }
+        if (user != null) {
+            Postings userPostings = byUser.get(user);
+            if (userPostings == null) return emptyPage(afterSequence, end);
+            if (source == null || userPostings.size() < source.size()) source = userPostings;
+        }
+
+        List<ActivityLog> logs = new ArrayList<>(Math.min(limit, 64));
+        long lastMatch = afterSequence;
+        boolean hasMore = false;
+        int next = source == null ? 0 : source.indexOfFirstAtLeast(start);
+        long seq = start;
+        long checkedBlock = -1;
+
+        while (true) {
+            if (source != null) {
+                if (next >= source.size()) break;
+                seq = source.get(next++);
+            } else if (seq >= end) {
+                break;
+            }
+
+            // Stop at the first block created after the end of the time range
+            long block = seq >>> BLOCK_SHIFT;
+            if (block != checkedBlock) {
+                long minTime = blockMinTime[(int) (block & blockMask)];
+                if (minTime > toTime && minTime != Long.MAX_VALUE) break; // MAX_VALUE: empty block
+                checkedBlock = block;
+            }
+
+            ActivityLog record = buffer.get(seq);
+            if (source == null) seq++;
+            if (record == null || !matches(record, fromTime, toTime, deviceID, user)) {
+                continue; // Overwritten, or filtered by another condition
+            }
+            if (logs.size() == limit) {
+                hasMore = true;
+                break;
+            }
+            logs.add(record);
+            lastMatch = record.getSequence();
+        }
+
+        long nextSequence = hasMore ? lastMatch : Math.max(afterSequence, end - 1);
+        return new LogPage(afterSequence, nextSequence, hasMore, logs);
+    }
+
+    private static LogPage emptyPage(long afterSequence, long end) {
+        return new LogPage(afterSequence, Math.max(afterSequence, end - 1), false, new ArrayList<>());
+    }
+
+    private static boolean matches(ActivityLog record, long fromTime, long toTime, String deviceID, String user) {
+        long timestamp = record.getTimestamp();
+        return timestamp >= fromTime && timestamp <= toTime
+                && (deviceID == null || deviceID.equals(record.getDeviceID()))
+                && (user == null || user.equals(record.getUser()));
+    }
+
+    // ---- MAINTENANCE ----
+
+    /**
+     * Index every record published since the last query.
+     */
+    private void catchUp() {
+        ActivityLog record;
+        while ((record = cursor.poll()) != null) {
+            long seq = record.getSequence();
+            addToTimeIndex(seq, record.getTimestamp());
+            byDevice.computeIfAbsent(record.getDeviceID(), k -> new Postings()).add(seq);
+            byUser.computeIfAbsent(record.getUser(), k -> new Postings()).add(seq);
+            indexedSinceSweep++;
+        }
+
+        long oldest = buffer.getOldestSequence();
+        firstBlock = Math.max(firstBlock, Math.min(oldest >>> BLOCK_SHIFT, lastBlock));
+
+        // Once per buffer length, drop entries for overwritten records
+        if (indexedSinceSweep >= buffer.getCapacity()) {
+            sweep(byDevice, oldest);
+            sweep(byUser, oldest);
+            indexedSinceSweep = 0;
+        }
+    }
+
+    private void addToTimeIndex(long seq, long timestamp) {
+        long block = seq >>> BLOCK_SHIFT;
+        if (block > lastBlock) {
+            // Open this block (and any skipped ones) carrying the running maximum
+            long carried = lastBlock < 0 ? Long.MIN_VALUE : blockMaxTime[(int) (lastBlock & blockMask)];
+            long from = Math.max(lastBlock + 1, block - blockMask);
+            for (long b = from; b <= block; b++) {
+                blockMinTime[(int) (b & blockMask)] = Long.MAX_VALUE;
+                blockMaxTime[(int) (b & blockMask)] = carried;
+            }
+            lastBlock = block;
+            firstBlock = Math.max(firstBlock, block - blockMask);
+        }
+        int slot = (int) (block & blockMask);
+        if (timestamp < blockMinTime[slot]) blockMinTime[slot] = timestamp;
+        if (timestamp > blockMaxTime[slot]) blockMaxTime[slot] = timestamp;
+    }
+
+    /**
+     * First sequence of the first block that may hold a log at or after time.
+     */
+    private long firstSequenceAt(long time) {
+        if (time == Long.MIN_VALUE || lastBlock < 0) return 0;
+        long low = firstBlock;
+        long high = lastBlock + 1;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (blockMaxTime[(int) (mid & blockMask)] >= time) high = mid;
+            else low = mid + 1;
+        }
+        return low << BLOCK_SHIFT;
+    }
+
+    private static void sweep(Map<String, Postings> index, long oldest) {
+        Iterator<Postings> it = index.values().iterator();
+        while (it.hasNext()) {
+            Postings postings = it.next();
+            postings.trimBefore(oldest);
+            if (postings.size() == 0) it.remove();
+        }
+    }
+
+    // ---- POSTING LIST ----
+
+    /**
+     * Ascending sequence numbers stored in a growable array; trimmed from the front.
+     */
+    private static final class Postings {
+        private long[] seqs = new long[8];
+        private int head;
+        private int tail;
+
+        void add(long seq) {
+            if (tail == seqs.length) {
+                int live = tail - head;
+                long[] target = live * 2 <= seqs.length ? seqs : new long[seqs.length * 2];
+                System.arraycopy(seqs, head, target, 0, live);
+                seqs = target;
+                head = 0;
+                tail = live;
+            }
+            seqs[tail++] = seq;
+        }
+
+        int size() {
+            return tail - head;
+        }
+
+        long get(int index) {
+            return seqs[head + index];
+        }
+
+        int indexOfFirstAtLeast(long seq) {
+            int low = head;
+            int high = tail;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (seqs[mid] < seq) low = mid + 1;
+                else high = mid;
+            }
+            return low - head;
+        }
+
+        void trimBefore(long seq) {
+            head += indexOfFirstAtLeast(seq);
+            if (head == tail) {
+                head = tail = 0;
+                if (seqs.length > 8) seqs = new long[8];
+            }
+        }
+    }
+}
@@ -1,6 +1,13 @@
 package homeguardian.system;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.EnumSet;
+
 public class Alarm extends Device{
+
+    private static final long serialVersionUID = 1L;
 	
 	// -------------------------
     // ATTRIBUTES
@@ -102,7 +109,7 @@ public class Alarm extends Device{
                          " (ID: " + getDeviceID() + "). Contacting emergency services...";
         addLog(message);
         notifyEvents(message);
-        // Later: ServerController.notifyEmergencyServices(message);
+        raiseAlert(AlertType.EMERGENCY, message);
     }
 
     // -------------------------
@@ -142,5 +149,31 @@ public class Alarm extends Device{
     public boolean isEnabled() { return isEnabled; }
     public boolean isMotionSensorLinked() { return connectedTMS; }
     public String getLinkedCameraId() { return linkedCameraId; }
-}
 
+    // -------------------------
+    // SNAPSHOT (ControllerSnapshot)
+    // -------------------------
+    Alarm(DataInputStream in) throws IOException {
+        super(in);
+        this.isArmed = in.readBoolean();
+        this.isEnabled = in.readBoolean();
+        this.connectedTMS = in.readBoolean();
+        this.linkedCameraId = ControllerSnapshot.readString(in);
+    }
+
+    @Override
+    void writeState(DataOutputStream out) throws IOException {
+        super.writeState(out);
+        out.writeBoolean(isArmed);
+        out.writeBoolean(isEnabled);
+        out.writeBoolean(connectedTMS);
+        ControllerSnapshot.writeString(out, linkedCameraId);
+    }
+
+    @Override
+    protected void addStateFlags(EnumSet<DeviceFlag> flags) {
+        super.addStateFlags(flags);
+        flags.add(isArmed ? DeviceFlag.ARMED : DeviceFlag.DISARMED);
+        flags.add(isEnabled ? DeviceFlag.ENABLED : DeviceFlag.DISABLED);
+    }
+}
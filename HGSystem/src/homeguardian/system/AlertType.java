@@ -0,0 +1,25 @@
+package homeguardian.system;
+
+/**
+ * Class: AlertType
+ *
+ * Description:
+ * Kinds of alerts a device raises (Device.raiseAlert()), with the priority
+ * of the resulting notifications. Repeats of a SECURITY alert are merged by
+ * the NotificationCoalescer; EMERGENCY alerts are never merged.
+ */
+public enum AlertType {
+    MOTION_DETECTED(NotificationPriority.SECURITY),
+    INVALID_PASSCODE(NotificationPriority.SECURITY),
+    EMERGENCY(NotificationPriority.EMERGENCY);
+
+    private final NotificationPriority priority;
+
+    AlertType(NotificationPriority priority) {
+        this.priority = priority;
+    }
+
+    public NotificationPriority getPriority() {
+        return priority;
+    }
+}
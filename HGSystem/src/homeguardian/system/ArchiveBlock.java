@@ -0,0 +1,79 @@
+package homeguardian.system;
+
+/**
+ * Class: ArchiveBlock
+ *
+ * Description:
+ * One decoded block of an ActivityLogArchive, column by column. Only the
+ * columns requested from the scan are present. String columns stay
+ * dictionary-encoded: getCode() returns the row's index into
+ * getDictionary() (-1 for null), so counting by value needs no strings.
+ */
+
+import java.util.EnumMap;
+import java.util.Map;
+
+public class ArchiveBlock {
+
+    private final int size;
+    private long[] sequences;
+    private long[] timestamps;
+    private final Map<ArchiveColumn, String[]> dictionaries = new EnumMap<>(ArchiveColumn.class);
+    private final Map<ArchiveColumn, int[]> codes = new EnumMap<>(ArchiveColumn.class);
+
+    ArchiveBlock(int size) {
+        this.size = size;
+    }
+
+    void setSequences(long[] sequences) { this.sequences = sequences; }
+    void setTimestamps(long[] timestamps) { this.timestamps = timestamps; }
+
+    void setStrings(ArchiveColumn column, String[] dictionary, int[] rowCodes) {
+        dictionaries.put(column, dictionary);
+        codes.put(column, rowCodes);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean has(ArchiveColumn column) {
+        switch (column) {
+            case SEQUENCE:  return sequences != null;
+            case TIMESTAMP: return timestamps != null;
+            default:        return codes.containsKey(column);
+        }
+    }
+
+    public long getSequence(int row) {
+        return sequences[row];
+    }
+
+    public long getTimestamp(int row) {
+        return timestamps[row];
+    }
+
+    public String[] getDictionary(ArchiveColumn column) {
+        return dictionaries.get(column);
+    }
+
+    public int getCode(ArchiveColumn column, int row) {
+        return codes.get(column)[row];
+    }
+
+    public String getString(ArchiveColumn column, int row) {
+        int code = codes.get(column)[row];
+        return code < 0 ? null : dictionaries.get(column)[code];
+    }
+
+    /**
+     * Rebuild the row as an ActivityLog (needs every column).
+     */
+    public ActivityLog toActivityLog(int row) {
+        return new ActivityLog(sequences[row], timestamps[row],
+                getString(ArchiveColumn.USER, row), getString(ArchiveColumn.ACTION_TYPE, row),
+                getString(ArchiveColumn.DEVICE_NAME, row), getString(ArchiveColumn.DEVICE_ID, row),
+                LogTemplate.valueOf(getString(ArchiveColumn.TEMPLATE, row)),
+                getString(ArchiveColumn.ARG0, row), getString(ArchiveColumn.ARG1, row));
+    }
+}
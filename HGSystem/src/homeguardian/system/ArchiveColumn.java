@@ -0,0 +1,21 @@
+package homeguardian.system;
+
+/**
+ * Class: ArchiveColumn
+ *
+ * Description:
+ * Columns of an ActivityLogArchive block. A scan names the columns it needs
+ * and only those are read and decoded. The order is part of the file format:
+ * only append.
+ */
+public enum ArchiveColumn {
+    SEQUENCE,       // Delta-encoded
+    TIMESTAMP,      // Delta-encoded
+    USER,           // The rest are dictionary-encoded strings
+    ACTION_TYPE,
+    DEVICE_NAME,
+    DEVICE_ID,
+    TEMPLATE,       // LogTemplate name
+    ARG0,           // Template arguments; the message itself for TEXT
+    ARG1
+}
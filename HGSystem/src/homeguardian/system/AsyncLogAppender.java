@@ -0,0 +1,138 @@
+package homeguardian.system;
+
+/**
+ * Class: AsyncLogAppender
+ *
+ * Description:
+ * Moves log output off the calling threads. append() only puts the event on
+ * a lock-free queue; a background thread takes events off in batches of up
+ * to batchSize and hands each batch to the LogSink. When the queue holds
+ * capacity events, new ones are dropped and counted rather than blocking
+ * the caller.
+ *
+ * An idle writer parks until append() or close() unparks it. The writer
+ * announces that it is going to sleep (sleeping) and re-checks the queue
+ * before parking, so an event offered in between is never left behind; the
+ * producer only pays for unpark() when the writer is actually asleep.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class AsyncLogAppender {
+
+    private static final long FLUSH_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final LogSink sink;
+    private final int capacity;
+    private final int batchSize;
+
+    private final ConcurrentLinkedQueue<LogEvent> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong appendedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile boolean sleeping;         // Writer is parked, or about to park
+
+    public AsyncLogAppender(LogSink sink, int capacity, int batchSize) {
+        if (capacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Invalid log queue capacity or batch size");
+        }
+        this.sink = sink;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.writer = new Thread(this::run, "hg-log-appender");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queue an event for the sink.
+     * @return false if the queue was full and the event was dropped
+     */
+    public boolean append(LogEvent event) {
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        appendedCount.incrementAndGet();
+        queue.offer(event);
+        if (sleeping) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    private void run() {
+        List<LogEvent> batch = new ArrayList<>(batchSize);
+        boolean wroteSinceFlush = false;
+        while (running || !queue.isEmpty()) {
+            LogEvent event;
+            while (batch.size() < batchSize && (event = queue.poll()) != null) {
+                batch.add(event);
+            }
+            if (batch.isEmpty()) {
+                if (wroteSinceFlush) {
+                    sink.flush();
+                    wroteSinceFlush = false;
+                }
+                sleeping = true;
+                if (queue.isEmpty() && running) { // Re-check after announcing, else an offer could be missed
+                    LockSupport.park(this);
+                }
+                sleeping = false;
+                continue;
+            }
+            try {
+                sink.write(batch);
+            } catch (RuntimeException e) {
+                // A failing sink must not stop logging; the batch is lost
+            }
+            queued.addAndGet(-batch.size());
+            writtenCount.addAndGet(batch.size());
+            batch.clear();
+            wroteSinceFlush = true;
+        }
+        sink.flush();
+    }
+
+    /**
+     * Wait until everything appended so far has been written and flushed.
+     */
+    public void flush() {
+        long target = appendedCount.get();
+        while (writtenCount.get() < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(FLUSH_POLL_NANOS);
+        }
+        sink.flush();
+    }
+
+    /**
+     * Write what is queued, stop the background thread and close the sink.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sink.close();
+    }
+
+    public LogSink getSink() { return sink; }
+    public int getQueuedCount() { return queued.get(); }
+    public long getWrittenCount() { return writtenCount.get(); }
+    public long getDroppedCount() { return droppedCount.get(); }
+}
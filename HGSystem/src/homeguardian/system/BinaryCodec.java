@@ -0,0 +1,229 @@
+package homeguardian.system;
+
+/**
+ * Class: BinaryCodec
+ *
+ * Description:
+ * Compact codec for the text command protocol. A command such as
+ * "TURN_ON:D001" or a reply such as "TURN_ON:D001:true" is sent as
+ *
+ *   byte    opcode      index into VERBS + 1, TEXT (0) or OBJECT (0x7F)
+ *   varint  requestId   request id + 1, or 0 when the message carries none
+ *   byte    fieldCount  number of ':'-separated fields after the verb
+ *   field*  varint length + UTF-8 bytes (the first field is the device id)
+ *
+ * Text that does not fit this shape (unknown verbs, non-ASCII text) is sent
+ * with opcode TEXT followed by its UTF-8 bytes, and any other object falls
+ * back to Java serialization with opcode OBJECT.
+ *
+ * A request id travels in text form as a "#<id>:" prefix, e.g.
+ * "#17:TURN_ON:D001", so decoded messages keep it for the server to echo.
+ * Ids are stored off by one so "#0:" survives the round trip; an id the
+ * number would not reproduce exactly (leading zeros) goes as TEXT.
+ *
+ * Negotiation: a client selects this codec by sending the 4 bytes of MAGIC
+ * ("HGB1") before its first frame. In the blocking connection modes the
+ * server always greets with the 4-byte Java serialization stream header,
+ * which binary clients read and ignore.
+ *
+ * The VERBS table is part of the wire format: only append to it.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class BinaryCodec implements MessageCodec {
+
+    public static final BinaryCodec INSTANCE = new BinaryCodec();
+
+    /** "HGB1" - sent by a client to select this codec */
+    public static final int MAGIC = 0x48474231;
+
+    static final int OP_TEXT = 0;
+    static final int OP_OBJECT = 0x7F;
+
+    // Opcode n is VERBS[n - 1]
+    private static final String[] VERBS = {
+        "TURN_ON",
+        "TURN_OFF",
+        "SYNC",
+        "LOCK",
+        "UNLOCK",
+        "ARM",
+        "DISARM",
+        "POWER_OFF",
+        "EMERGENCY",
+        "ENABLE",
+        "DISABLE",
+        "RECORD",
+        "STOP",
+        "BATCH",
+        "QUERY",
+        "LOGS",
+        "INBOX",
+        "INBOX_READ"
+    };
+
+    @Override
+    public String getName() {
+        return "binary";
+    }
+
+    // ---- ENCODING ----
+
+    @Override
+    public byte[] encode(Object msg) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+
+        if (!(msg instanceof String)) {
+            out.write(OP_OBJECT);
+            writeVarint(out, 0);
+            out.write(SerializationCodec.INSTANCE.encode(msg));
+            return out.toByteArray();
+        }
+
+        String text = (String) msg;
+        if (!encodeCommand(text, out)) {
+            out.reset();
+            out.write(OP_TEXT);
+            writeVarint(out, 0);
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Try to encode "[#id:]VERB[:field...]" compactly.
+     * @return false if the text needs the TEXT fallback
+     */
+    private static boolean encodeCommand(String text, ByteArrayOutputStream out) {
+        int len = text.length();
+        for (int i = 0; i < len; i++) {
+            if (text.charAt(i) >= 0x80) return false;
+        }
+
+        int pos = 0;
+        long requestId = -1;
+        if (len > 0 && text.charAt(0) == '#') {
+            int colon = text.indexOf(':');
+            if (colon < 2 || (colon > 2 && text.charAt(1) == '0')) return false;
+            requestId = 0;
+            for (int i = 1; i < colon; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9' || requestId > (Long.MAX_VALUE - 9) / 10) return false;
+                requestId = requestId * 10 + (c - '0');
+            }
+            pos = colon + 1;
+        }
+
+        int verbEnd = text.indexOf(':', pos);
+        if (verbEnd < 0) verbEnd = len;
+        int opcode = lookupVerb(text, pos, verbEnd);
+        if (opcode == OP_TEXT) return false;
+
+        int fieldCount = 0;
+        for (int i = verbEnd; i < len; i++) {
+            if (text.charAt(i) == ':') fieldCount++;
+        }
+        if (fieldCount > 255) return false;
+
+        out.write(opcode);
+        writeVarint(out, requestId + 1);
+        out.write(fieldCount);
+
+        int start = verbEnd + 1;
+        for (int f = 0; f < fieldCount; f++) {
+            int end = text.indexOf(':', start);
+            if (end < 0) end = len;
+            writeVarint(out, end - start);
+            for (int i = start; i < end; i++) {
+                out.write(text.charAt(i));
+            }
+            start = end + 1;
+        }
+        return true;
+    }
+
+    private static int lookupVerb(String text, int from, int to) {
+        int length = to - from;
+        for (int i = 0; i < VERBS.length; i++) {
+            if (VERBS[i].length() == length && text.regionMatches(from, VERBS[i], 0, length)) {
+                return i + 1;
+            }
+        }
+        return OP_TEXT;
+    }
+
+    // ---- DECODING ----
+
+    @Override
+    public Object decode(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        int[] pos = { offset };
+
+        int opcode = readByte(data, pos, end);
+        long requestId = readVarint(data, pos, end) - 1;    // -1 = none
+
+        if (opcode == OP_OBJECT) {
+            return SerializationCodec.INSTANCE.decode(data, pos[0], end - pos[0]);
+        }
+        if (opcode == OP_TEXT) {
+            return new String(data, pos[0], end - pos[0], StandardCharsets.UTF_8);
+        }
+        if (opcode < 1 || opcode > VERBS.length) {
+            throw new IOException("Unknown opcode: " + opcode);
+        }
+
+        ByteArrayOutputStream text = new ByteArrayOutputStream(length + 16);
+        if (requestId >= 0) {
+            text.write('#');
+            writeAscii(text, Long.toString(requestId));
+            text.write(':');
+        }
+        writeAscii(text, VERBS[opcode - 1]);
+
+        int fieldCount = readByte(data, pos, end);
+        for (int f = 0; f < fieldCount; f++) {
+            int fieldLength = (int) readVarint(data, pos, end);
+            if (fieldLength < 0 || fieldLength > end - pos[0]) {
+                throw new IOException("Truncated field");
+            }
+            text.write(':');
+            text.write(data, pos[0], fieldLength);
+            pos[0] += fieldLength;
+        }
+        return text.toString(StandardCharsets.UTF_8);
+    }
+
+    // ---- HELPERS ----
+
+    private static void writeAscii(ByteArrayOutputStream out, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            out.write(s.charAt(i));
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static int readByte(byte[] data, int[] pos, int end) throws IOException {
+        if (pos[0] >= end) throw new IOException("Truncated frame");
+        return data[pos[0]++] & 0xFF;
+    }
+
+    private static long readVarint(byte[] data, int[] pos, int end) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(data, pos, end);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,103 @@
+package homeguardian.system;
+
+/**
+ * Class: CommandDispatcher
+ *
+ * Description:
+ * Maps command verbs ("TURN_ON", "LOCK", "SYNC", ...) to CommandHandlers.
+ *
+ * Lookup is a single probe sequence in an open-addressed table. The verb's
+ * hash is computed directly over the characters of the incoming message and
+ * compared with regionMatches, so dispatching allocates nothing. Adding a
+ * command is one register() call.
+ *
+ * A verb ends at the first ':' or ' ' ("TURN_ON:D001", "SYNC since=42") or at
+ * the end of the message ("SYNC").
+ */
+public class CommandDispatcher {
+
+    // Open-addressed table: slot i holds table[2 * i] = verb, table[2 * i + 1] = handler.
+    // Copy-on-write, so dispatch always sees a consistent table without locking.
+    private volatile Object[] table = new Object[2 * 32];
+    private int size;
+
+    /**
+     * Register (or replace) the handler for a verb.
+     */
+    public synchronized void register(String verb, CommandHandler handler) {
+        if (verb == null || verb.isEmpty() || verb.indexOf(':') >= 0 || verb.indexOf(' ') >= 0) {
+            throw new IllegalArgumentException("Invalid verb: " + verb);
+        }
+        int slots = table.length / 2;
+        if ((size + 1) * 2 > slots) {
+            slots *= 2;
+        }
+
+        Object[] newTable = new Object[2 * slots];
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != null) {
+                insert(newTable, (String) table[i], (CommandHandler) table[i + 1]);
+            }
+        }
+        if (insert(newTable, verb, handler)) {
+            size++;
+        }
+        table = newTable;
+    }
+
+    /**
+     * Dispatch message[from..] to the handler registered for its verb.
+     * @param from index where the verb starts (after any request tag)
+     * @return false if no handler is registered for the verb
+     */
+    public boolean dispatch(String message, int from, String requestTag, ConnectionToClient client) {
+        int len = message.length();
+        int verbEnd = from;
+        int hash = 0;
+        while (verbEnd < len) {
+            char c = message.charAt(verbEnd);
+            if (c == ':' || c == ' ') break;
+            hash = 31 * hash + c;
+            verbEnd++;
+        }
+
+        Object[] t = table;
+        int mask = t.length / 2 - 1;
+        int verbLength = verbEnd - from;
+        for (int i = spread(hash) & mask; t[2 * i] != null; i = (i + 1) & mask) {
+            String verb = (String) t[2 * i];
+            if (verb.length() == verbLength && message.regionMatches(from, verb, 0, verbLength)) {
+                int argStart = verbEnd < len ? verbEnd + 1 : -1;
+                ((CommandHandler) t[2 * i + 1]).handle(message, argStart, requestTag, client);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the verb was not in the table yet
+     */
+    private static boolean insert(Object[] t, String verb, CommandHandler handler) {
+        int mask = t.length / 2 - 1;
+        int i = spread(verb.hashCode()) & mask;
+        while (t[2 * i] != null) {
+            if (t[2 * i].equals(verb)) {
+                t[2 * i + 1] = handler;
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        t[2 * i] = verb;
+        t[2 * i + 1] = handler;
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,24 @@
+package homeguardian.system;
+
+/**
+ * Class: CommandHandler
+ *
+ * Description:
+ * Handles one command verb registered with a CommandDispatcher.
+ *
+ * The handler receives the whole message and the index where the verb's
+ * arguments start, so it can pick out the fields it needs without the
+ * dispatcher splitting the message into intermediate strings.
+ */
+@FunctionalInterface
+public interface CommandHandler {
+
+    /**
+     * @param message    the full message, e.g. "TURN_ON:D001" (request tag removed)
+     * @param argStart   index just past the verb and its ':' or ' ' separator,
+     *                   or -1 if the message is the bare verb
+     * @param requestTag "#id:" prefix to echo on the reply, or "" if none
+     * @param client     the connection the message came from
+     */
+    void handle(String message, int argStart, String requestTag, ConnectionToClient client);
+}
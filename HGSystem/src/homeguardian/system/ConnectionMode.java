@@ -0,0 +1,22 @@
+package homeguardian.system;
+
+/**
+ * Class: ConnectionMode
+ *
+ * Description:
+ * Selects how an AbstractServer accepts and services its client connections.
+ *
+ *  - THREAD_PER_CLIENT: blocking sockets, one thread per ConnectionToClient
+ *    (the original behaviour).
+ *  - VIRTUAL_THREAD_PER_CLIENT: the same blocking code, but the accept loop and
+ *    every ConnectionToClient run on Java 21 virtual threads, so mostly-idle
+ *    connections do not each hold a platform thread stack.
+ *  - NIO_SELECTOR: non-blocking ServerSocketChannel serviced by a small set of
+ *    selector threads (one per core). Messages are exchanged as length-prefixed
+ *    frames instead of a continuous object stream.
+ */
+public enum ConnectionMode {
+    THREAD_PER_CLIENT,
+    VIRTUAL_THREAD_PER_CLIENT,
+    NIO_SELECTOR
+}
@@ -11,10 +11,41 @@ package homeguardian.system;
  * It handles receiving messages from the client, sending messages to the client,
  * and notifying the server of client events like connect, disconnect, or exceptions.
  * Implements Runnable so each client can run in its own thread.
+ *
+ * In NIO_SELECTOR mode the connection is instead driven by an NioEventLoop:
+ * bytes are read as they arrive, split into length-prefixed frames
+ * ([int length][body]) and each decoded message is passed to the server.
+ * Outbound messages are queued and written when the socket is writable.
+ *
+ * In every mode sendToClient() only enqueues onto a bounded OutboundQueue.
+ * A single writer per connection drains it - the event loop in NIO_SELECTOR
+ * mode, or a task on the server's writer executor in the blocking modes -
+ * writing each batch with one flush. When the client falls behind, the
+ * server's OverflowPolicy decides which broadcasts (sendBroadcast) are
+ * dropped; replies are never dropped - the connection is closed instead.
+ *
+ * A request that is answered asynchronously but must keep its reply in
+ * order (no request ID) holds the connection with holdUntil(): nothing more
+ * is read from this client until it completes. The blocking modes wait on
+ * the connection's own thread; in NIO_SELECTOR mode the event loop just
+ * stops reading this channel and serves the others meanwhile.
+ *
+ * Codec negotiation: when a client opens with BinaryCodec.MAGIC every message
+ * in both directions is a BinaryCodec frame. Otherwise the connection keeps
+ * the legacy format - a continuous object stream in the blocking modes, or
+ * SerializationCodec frames in NIO_SELECTOR mode.
  */
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ConnectionToClient implements Runnable {
 
@@ -23,22 +54,64 @@ public class ConnectionToClient implements Runnable {
     private ObjectInputStream in;          // Input stream from client
     private ObjectOutputStream out;        // Output stream to client
     private AbstractServer server;         // Reference to the server
-    private boolean running = true;        // True while connection is active
+    private final long connectionId;       // Stable ID, unique for the server's lifetime
+    private volatile boolean running = true; // True while connection is active
+    private volatile MessageCodec codec;   // Framed codec, null for a legacy object stream
+
+    // ---- FRAMED BLOCKING MODE ----
+    private DataInputStream frameIn;       // Frame input once BinaryCodec is negotiated
+    private DataOutputStream frameOut;     // Frame output once BinaryCodec is negotiated
+    private volatile boolean ready;        // True once streams are open and negotiated
+
+    // ---- OUTBOUND QUEUE ----
+    private final OutboundQueue outbound;  // Messages waiting for the writer
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(); // Writer running or queued
+
+    // ---- PIPELINED REQUESTS ----
+    private final AtomicInteger inFlight = new AtomicInteger(); // Accepted, not yet answered
+    private CompletableFuture<?> held;     // NIO_SELECTOR: request holding the connection (event loop only)
+    private boolean dispatching;           // NIO_SELECTOR: inside dispatchFrames() (event loop only)
+
+    // ---- NIO_SELECTOR MODE ----
+    static final int MAX_FRAME_SIZE = 1024 * 1024;   // Largest accepted frame body
+
+    private SocketChannel channel;         // Non-blocking channel (null in blocking mode)
+    private NioEventLoop loop;             // Selector thread that owns the channel
+    private SelectionKey key;              // Registration with the loop's selector
+    private ByteBuffer readBuffer;         // Partially received frames
+    private ByteBuffer pendingWrite;       // Frame partially written to the socket
+    private final AtomicBoolean closed = new AtomicBoolean();
 
     /**
      * Constructor initializes the connection with the socket and server reference
      * @param socket The client socket
      * @param server The server handling this client
-     * @throws IOException If there is an error creating input/output streams
+     * @throws IOException If there is an error configuring the socket
      */
     public ConnectionToClient(Socket socket, AbstractServer server) throws IOException {
         this.socket = socket;
         this.server = server;
+        this.connectionId = server.nextConnectionId();
+        this.outbound = new OutboundQueue(server.getOutboundQueueCapacity(), server.getOverflowPolicy());
+        socket.setTcpNoDelay(true);
+        // Streams are opened in run() so a slow client cannot stall the accept loop
+    }
 
-        // Java requires ObjectOutputStream to be created first
-        this.out = new ObjectOutputStream(socket.getOutputStream());
-        this.out.flush();
-        this.in = new ObjectInputStream(socket.getInputStream());
+    /**
+     * Constructor for NIO_SELECTOR mode. The connection becomes active once the
+     * event loop has registered the channel (see attachKey).
+     * @param channel The accepted, non-blocking client channel
+     * @param loop The event loop that will service this channel
+     * @param server The server handling this client
+     */
+    ConnectionToClient(SocketChannel channel, NioEventLoop loop, AbstractServer server) {
+        this.channel = channel;
+        this.loop = loop;
+        this.server = server;
+        this.connectionId = server.nextConnectionId();
+        this.socket = channel.socket();
+        this.readBuffer = ByteBuffer.allocate(1024);
+        this.outbound = new OutboundQueue(server.getOutboundQueueCapacity(), server.getOverflowPolicy());
     }
 
     /**
@@ -46,42 +119,412 @@ public class ConnectionToClient implements Runnable {
      */
     @Override
     public void run() {
+        try {
+            openStreams();
+        } catch (IOException e) {
+            running = false;
+            server.clientException(this, e); // Callback: client exception
+            close();
+            server.connectionClosed(this, false);
+            return;
+        }
+
         server.clientConnected(this); // Callback: client connected
 
         try {
             while (running) {
-                Object msg = in.readObject(); // Wait for a message from client
+                Object msg = readMessage(); // Wait for a message from client
                 server.handleMessageFromClient(msg, this); // Pass message to server
             }
         } catch (Exception e) {
             running = false;
             server.clientException(this, e); // Callback: client exception
         } finally {
-            server.clientDisconnected(this); // Callback: client disconnected
+            server.connectionClosed(this, true); // Callback: client disconnected
             close(); // Ensure connection is closed
         }
     }
 
+    /**
+     * Open the blocking streams and pick a codec from the client's first 4 bytes.
+     */
+    private void openStreams() throws IOException {
+        // Java requires ObjectOutputStream to be created first; its header is
+        // also the greeting binary clients skip
+        out = new ObjectOutputStream(socket.getOutputStream());
+        out.flush();
+
+        BufferedInputStream input = new BufferedInputStream(socket.getInputStream());
+        input.mark(4);
+        DataInputStream data = new DataInputStream(input);
+        if (data.readInt() == BinaryCodec.MAGIC) {
+            codec = BinaryCodec.INSTANCE;
+            frameIn = data;
+            frameOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out = null;
+        } else {
+            input.reset();
+            in = new ObjectInputStream(input);
+        }
+        ready = true;
+        scheduleFlush(); // Send anything queued while negotiating
+    }
+
+    private Object readMessage() throws IOException, ClassNotFoundException {
+        if (frameIn == null) {
+            return in.readObject();
+        }
+        int length = frameIn.readInt();
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        byte[] body = new byte[length];
+        frameIn.readFully(body);
+        return codec.decode(body, 0, length);
+    }
+
     /**
      * Send a message to the client
      * @param msg The message object to send
      */
     public void sendToClient(Object msg) {
+        enqueue(msg, false);
+    }
+
+    /**
+     * Send a message that goes to every client, e.g. a SYNC update. Unlike a
+     * reply, it may be dropped or coalesced when this client falls behind.
+     */
+    void sendBroadcast(Object msg) {
+        enqueue(msg, true);
+    }
+
+    private void enqueue(Object msg, boolean broadcast) {
+        if (!running) return;
+        if (!outbound.offer(msg, broadcast)) {
+            // The client is too far behind and this message must not be lost
+            IOException overflow = new IOException("Outbound queue overflow");
+            if (channel != null) {
+                closeWithException(overflow);
+            } else {
+                server.clientException(this, overflow); // Callback: client exception
+                close();
+            }
+            return;
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Make sure exactly one writer is draining the outbound queue.
+     */
+    private void scheduleFlush() {
+        if (!flushScheduled.compareAndSet(false, true)) return; // Writer already pending
+
+        if (channel != null) {
+            loop.execute(this::flushWrites);
+        } else if (ready) {
+            server.getWriterExecutor().execute(this::drainBlocking);
+        } else {
+            // Still negotiating; openStreams() schedules the writer when done
+            flushScheduled.set(false);
+            if (ready) scheduleFlush();
+        }
+    }
+
+    /**
+     * Writer for the blocking modes: write every queued message, flushing once
+     * per batch, until the queue stays empty.
+     */
+    private void drainBlocking() {
+        List<Object> batch = new ArrayList<>();
         try {
-            out.writeObject(msg);
-            out.flush();
+            while (true) {
+                outbound.drainTo(batch);
+                if (batch.isEmpty()) {
+                    flushScheduled.set(false);
+                    // A sender may have enqueued after the drain but before the reset
+                    if (outbound.isEmpty() || !flushScheduled.compareAndSet(false, true)) return;
+                    continue;
+                }
+
+                for (Object msg : batch) {
+                    if (frameOut != null) {
+                        byte[] body = codec.encode(msg);
+                        frameOut.writeInt(body.length);
+                        frameOut.write(body);
+                    } else {
+                        out.writeObject(msg);
+                        // Forget what was written: a device sent again must go out in its
+                        // current state, not as a back-reference, and the handle table
+                        // must not grow for the life of the connection
+                        out.reset();
+                    }
+                }
+                if (frameOut != null) {
+                    frameOut.flush();
+                } else {
+                    out.flush();
+                }
+                batch.clear();
+            }
         } catch (IOException e) {
-            server.clientException(this, e); // Callback: client exception
+            outbound.clear();
+            flushScheduled.set(false);
+            if (running) {
+                server.clientException(this, e); // Callback: client exception
+                close();
+            }
         }
     }
 
+    /**
+     * Number of messages waiting to be written to this client.
+     */
+    public int getPendingMessageCount() {
+        return outbound.size();
+    }
+
+    /**
+     * Broadcasts discarded or merged because this client fell behind.
+     */
+    public long getDroppedMessageCount() {
+        return outbound.getDroppedCount() + outbound.getCoalescedCount();
+    }
+
+    /**
+     * Reserve a slot for a pipelined request.
+     * @return false if limit requests are already in flight
+     */
+    boolean tryBeginRequest(int limit) {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) return false;
+            if (inFlight.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    /**
+     * Release the slot taken by tryBeginRequest once the reply is queued.
+     */
+    void endRequest() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Read nothing more from this client until done completes, so a reply
+     * sent when it completes stays in order. Called from
+     * handleMessageFromClient.
+     */
+    void holdUntil(CompletableFuture<?> done) {
+        if (done.isDone()) return;
+        if (channel == null) {
+            done.handle((result, error) -> null).join(); // The connection's own thread
+            return;
+        }
+        held = done;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        done.whenComplete((result, error) -> loop.execute(() -> resumeReading(done)));
+    }
+
+    /**
+     * Number of pipelined requests accepted but not yet answered.
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * Stable identifier of this connection; see AbstractServer.getClientConnection(long).
+     */
+    public long getConnectionId() {
+        return connectionId;
+    }
+
+    /**
+     * The codec negotiated for this connection, or null for a legacy object stream
+     * (or while still negotiating).
+     */
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
     /**
      * Close this client connection
      */
     public void close() {
         running = false;
+        if (channel != null) {
+            closeNonBlocking();
+            return;
+        }
         try {
             socket.close(); // Close underlying socket
         } catch (IOException ignore) {}
     }
+
+    // ---- NIO_SELECTOR MODE ----
+
+    /**
+     * Called on the event loop once the channel is registered with its selector.
+     */
+    void attachKey(SelectionKey key) {
+        this.key = key;
+        server.clientConnected(this); // Callback: client connected
+        if (!outbound.isEmpty()) {
+            flushWrites();
+        }
+    }
+
+    /**
+     * Read whatever is available and dispatch every complete frame.
+     * Runs on the event loop thread.
+     */
+    void handleReadable() {
+        try {
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                closeNonBlocking(); // Orderly shutdown by the client
+                return;
+            }
+            dispatchFrames();
+        } catch (Exception e) {
+            closeWithException(e);
+        }
+    }
+
+    /**
+     * Pass every complete buffered frame to the server, stopping while a
+     * request holds the connection. Runs on the event loop thread.
+     */
+    private void dispatchFrames() throws IOException {
+        dispatching = true;
+        try {
+            readBuffer.flip();
+            if (codec == null && readBuffer.remaining() >= 4) {
+                negotiateNonBlocking();
+            }
+            while (running && held == null && codec != null && readBuffer.remaining() >= 4) {
+                int length = readBuffer.getInt(readBuffer.position());
+                if (length < 0 || length > MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                if (readBuffer.remaining() < 4 + length) {
+                    break; // Wait for the rest of the frame
+                }
+                readBuffer.getInt();
+                Object msg = codec.decode(readBuffer.array(), readBuffer.position(), length);
+                readBuffer.position(readBuffer.position() + length);
+                server.handleMessageFromClient(msg, this); // Pass message to server
+            }
+            readBuffer.compact();
+            ensureReadCapacity();
+        } finally {
+            dispatching = false;
+        }
+    }
+
+    /**
+     * The request holding the connection has completed: read again, starting
+     * with the frames already buffered. Runs on the event loop thread.
+     */
+    private void resumeReading(CompletableFuture<?> done) {
+        if (held != done) return;
+        held = null;
+        if (closed.get()) return;
+        try {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            if (!dispatching) dispatchFrames(); // Else completed inline: the running loop goes on
+        } catch (Exception e) {
+            closeWithException(e);
+        }
+    }
+
+    /**
+     * Pick the codec from the first 4 bytes: the binary magic, or else the
+     * length of a first SerializationCodec frame.
+     */
+    private void negotiateNonBlocking() {
+        if (readBuffer.getInt(readBuffer.position()) == BinaryCodec.MAGIC) {
+            readBuffer.getInt();
+            codec = BinaryCodec.INSTANCE;
+        } else {
+            codec = SerializationCodec.INSTANCE;
+        }
+        if (!outbound.isEmpty()) {
+            flushWrites();
+        }
+    }
+
+    /**
+     * Grow the read buffer when a frame larger than its capacity is pending.
+     */
+    private void ensureReadCapacity() {
+        if (readBuffer.hasRemaining() || readBuffer.position() < 4) return;
+        int needed = 4 + readBuffer.getInt(0);
+        if (needed > readBuffer.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(needed);
+            readBuffer.flip();
+            bigger.put(readBuffer);
+            readBuffer = bigger;
+        }
+    }
+
+    /**
+     * Write as much queued data as the socket accepts. Runs on the event loop thread.
+     */
+    void handleWritable() {
+        flushWrites();
+    }
+
+    private void flushWrites() {
+        flushScheduled.set(false);
+        if (key == null || !key.isValid()) return; // Not registered yet, or closed
+        if (codec == null) return;                 // Codec not negotiated yet
+
+        try {
+            while (true) {
+                if (pendingWrite == null) {
+                    Object msg = outbound.poll();
+                    if (msg == null) break;
+                    pendingWrite = encodeFrame(msg);
+                }
+                channel.write(pendingWrite);
+                if (pendingWrite.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return; // Socket buffer full, wait for OP_WRITE
+                }
+                pendingWrite = null;
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            closeWithException(e);
+        }
+    }
+
+    void closeWithException(Exception e) {
+        if (!closed.get()) {
+            server.clientException(this, e); // Callback: client exception
+        }
+        closeNonBlocking();
+    }
+
+    private void closeNonBlocking() {
+        running = false;
+        if (!closed.compareAndSet(false, true)) return;
+
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignore) {}
+        outbound.clear();
+        server.connectionClosed(this, key != null); // Callback: client disconnected
+    }
+
+    private ByteBuffer encodeFrame(Object msg) throws IOException {
+        byte[] body = codec.encode(msg);
+        ByteBuffer frame = ByteBuffer.allocate(4 + body.length);
+        frame.putInt(body.length).put(body).flip();
+        return frame;
+    }
 }
@@ -0,0 +1,54 @@
+package homeguardian.system;
+
+/**
+ * Class: ConsoleLogSink
+ *
+ * Description:
+ * Writes messages to a PrintStream (System.out by default) as
+ *   "2025-12-02 14:35:10.123 INFO  [DEVICE] message"
+ * A whole batch is formatted into one buffer and printed with a single
+ * call, so the stream's lock is taken once per batch.
+ */
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+public class ConsoleLogSink implements LogSink {
+
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private final PrintStream out;
+    private final StringBuilder buffer = new StringBuilder(8192);
+
+    public ConsoleLogSink() {
+        this(System.out);
+    }
+
+    public ConsoleLogSink(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(List<LogEvent> batch) {
+        buffer.setLength(0);
+        for (LogEvent event : batch) {
+            TIME_FORMAT.formatTo(Instant.ofEpochMilli(event.getTimestamp()), buffer);
+            buffer.append(' ');
+            String level = event.getLevel().name();
+            buffer.append(level);
+            for (int i = level.length(); i < 5; i++) buffer.append(' ');
+            buffer.append(" [").append(event.getCategory().name()).append("] ")
+                  .append(event.getMessage()).append(System.lineSeparator());
+        }
+        out.print(buffer);
+    }
+
+    @Override
+    public void flush() {
+        out.flush();
+    }
+}
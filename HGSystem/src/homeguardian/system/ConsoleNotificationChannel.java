@@ -0,0 +1,22 @@
+package homeguardian.system;
+
+/**
+ * Class: ConsoleNotificationChannel
+ *
+ * Description:
+ * Delivers notifications to the console log with Notification.sendAlert().
+ */
+public class ConsoleNotificationChannel implements NotificationChannel {
+
+    public static final ConsoleNotificationChannel INSTANCE = new ConsoleNotificationChannel();
+
+    @Override
+    public String getName() {
+        return "console";
+    }
+
+    @Override
+    public void deliver(Notification notification) {
+        notification.sendAlert();
+    }
+}
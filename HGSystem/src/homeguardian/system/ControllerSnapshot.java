@@ -0,0 +1,411 @@
+package homeguardian.system;
+
+/**
+ * Class: ControllerSnapshot
+ *
+ * Description:
+ * Saves the controller's devices and users to a directory in a compact
+ * binary form, and loads them back on startup, so device settings
+ * (brightness, passcodes, links, armed states) and guest access survive a
+ * restart.
+ *
+ *   devices-<i>.hgs   the devices of controller shard i
+ *   users.hgs         admins and guests, with guest access by device ID
+ *   manifest.hgs      shard file count and change sequence; written last
+ *
+ * Every file is "HGS1", a version, its records and a CRC32 of the rest,
+ * and is replaced atomically (temporary file, then move).
+ *
+ * Saving does not stop command processing: a shard's devices are encoded
+ * on that shard's own thread, ENCODE_CHUNK devices per task, so a command
+ * waits for at most one chunk and other shards keep running. Files are
+ * written from the snapshot thread. Only shards with changes since their
+ * last save (through the controller) are rewritten; save(true) rewrites
+ * all of them.
+ *
+ * load() decodes the shard files in parallel and registers the devices in
+ * bulk (HGController.restoreDevices), one task per controller shard. Every
+ * file is decoded before anything is registered, so a snapshot that cannot
+ * be read leaves the controller untouched; moveAside() then keeps it out of
+ * the way of the next save.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+public class ControllerSnapshot {
+
+    public static final long DEFAULT_PERIOD_MILLIS = 30_000;
+
+    private static final int MAGIC = 0x48475331;       // "HGS1"
+    private static final int VERSION = 1;
+    private static final String MANIFEST_FILE = "manifest.hgs";
+    private static final String USERS_FILE = "users.hgs";
+    private static final String CORRUPT_PREFIX = "corrupt-";
+    private static final int ENCODE_CHUNK = 1024;       // Devices encoded per shard task
+
+    private final HGController controller;
+    private final Path directory;
+    private final long[] savedChangeSeq;                // Per shard, at its last save (-1 = never)
+    private ScheduledExecutorService scheduler;
+
+    public ControllerSnapshot(HGController controller, Path directory) throws IOException {
+        this.controller = controller;
+        this.directory = directory;
+        this.savedChangeSeq = new long[controller.getShardCount()];
+        Arrays.fill(savedChangeSeq, -1);
+        Files.createDirectories(directory);
+    }
+
+    // ---- SAVING ----
+
+    /**
+     * Write a snapshot.
+     * @param full rewrite every shard, not only those changed since the last save
+     * @return number of shard files written
+     */
+    public synchronized int save(boolean full) throws IOException {
+        int shardCount = savedChangeSeq.length;
+        long changeSeq = controller.getChangeSeq();
+        int written = 0;
+        for (int i = 0; i < shardCount; i++) {
+            // Read before encoding: a change made meanwhile is saved again next time
+            long shardChangeSeq = controller.getShardChangeSeq(i);
+            if (!full && shardChangeSeq == savedChangeSeq[i]) continue;
+            writeFile(directory.resolve(deviceFile(i)), encodeShard(i));
+            savedChangeSeq[i] = shardChangeSeq;
+            written++;
+        }
+        writeFile(directory.resolve(USERS_FILE), encodeUsers(controller.getAllUsers()));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = header(bytes);
+        out.writeLong(changeSeq);
+        out.writeInt(shardCount);
+        out.writeLong(System.currentTimeMillis());
+        writeFile(directory.resolve(MANIFEST_FILE), bytes.toByteArray());
+
+        // Shard files of an earlier run with more shards
+        for (int i = shardCount; Files.deleteIfExists(directory.resolve(deviceFile(i))); i++) { }
+        return written;
+    }
+
+    /**
+     * Save changed shards every periodMillis on a background thread ("hg-snapshot").
+     */
+    public synchronized void start(long periodMillis) {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hg-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                save(false);
+            } catch (IOException | RuntimeException e) {
+                Log.warn(LogCategory.SYSTEM, "Snapshot failed: " + e.getMessage());
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop periodic saving and write a full snapshot.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (scheduler != null) scheduler.shutdownNow();
+        }
+        save(true);
+    }
+
+    // ---- LOADING ----
+
+    /**
+     * Restore the devices and users of a snapshot into an empty controller.
+     * @return number of devices restored, or -1 if the directory holds no snapshot
+     */
+    public static int load(HGController controller, Path directory) throws IOException {
+        Path manifestFile = directory.resolve(MANIFEST_FILE);
+        if (!Files.exists(manifestFile)) return -1;
+        DataInputStream manifest = open(manifestFile);
+        long changeSeq = manifest.readLong();
+        int shardFiles = manifest.readInt();
+
+        // Decode every shard file in parallel
+        List<CompletableFuture<List<Device>>> decoded = new ArrayList<>();
+        for (int i = 0; i < shardFiles; i++) {
+            Path file = directory.resolve(deviceFile(i));
+            decoded.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return decodeDevices(open(file));
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }));
+        }
+        List<Device> devices = new ArrayList<>();
+        for (CompletableFuture<List<Device>> shard : decoded) {
+            devices.addAll(join(shard));
+        }
+
+        Path usersFile = directory.resolve(USERS_FILE);
+        List<User> users = Files.exists(usersFile) ? decodeUsers(open(usersFile), devices) : List.of();
+
+        // Everything decoded: only now change the controller
+        controller.restoreDevices(devices, changeSeq);
+        for (User user : users) {
+            controller.addUser(user);
+        }
+        return devices.size();
+    }
+
+    /**
+     * Move the snapshot files into directory/corrupt-<millis>/, so a snapshot
+     * that could not be loaded is kept for inspection instead of being
+     * overwritten by the next save.
+     * @return the directory the files were moved to
+     */
+    public static Path moveAside(Path directory) throws IOException {
+        Path target = directory.resolve(CORRUPT_PREFIX + System.currentTimeMillis());
+        Files.createDirectories(target);
+        List<Path> files = new ArrayList<>(List.of(directory.resolve(MANIFEST_FILE), directory.resolve(USERS_FILE)));
+        for (int i = 0; Files.exists(directory.resolve(deviceFile(i))); i++) {
+            files.add(directory.resolve(deviceFile(i)));
+        }
+        for (Path file : files) {
+            if (Files.exists(file)) {
+                Files.move(file, target.resolve(file.getFileName()));
+            }
+        }
+        return target;
+    }
+
+    // ---- DEVICES ----
+
+    private byte[] encodeShard(int shard) throws IOException {
+        List<Device> devices = join(controller.onShard(shard, DeviceRegistry::getAll));
+        ByteArrayOutputStream records = new ByteArrayOutputStream(64 + devices.size() * 64);
+        DataOutputStream out = new DataOutputStream(records);
+        int count = 0;
+        for (int start = 0; start < devices.size(); start += ENCODE_CHUNK) {
+            List<Device> chunk = devices.subList(start, Math.min(devices.size(), start + ENCODE_CHUNK));
+            count += join(controller.onShard(shard, registry -> encodeDevices(registry, chunk, out)));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + records.size());
+        header(bytes).writeInt(count);
+        records.writeTo(bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Runs on the shard's thread. Skips devices removed since the shard's list was taken.
+     */
+    private static int encodeDevices(DeviceRegistry registry, List<Device> devices, DataOutputStream out) {
+        try {
+            int count = 0;
+            for (Device device : devices) {
+                if (registry.get(device.getDeviceID()) != device) continue;
+                out.writeUTF(device.getClass().getSimpleName());
+                device.writeState(out);
+                count++;
+            }
+            return count;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);   // In memory: does not happen
+        }
+    }
+
+    private static List<Device> decodeDevices(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Device> devices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String type = in.readUTF();
+            switch (type) {
+                case "SmartLight":      devices.add(new SmartLight(in)); break;
+                case "SmartLock":       devices.add(new SmartLock(in)); break;
+                case "Alarm":           devices.add(new Alarm(in)); break;
+                case "SecurityCamera":  devices.add(new SecurityCamera(in)); break;
+                case "MotionSensor":    devices.add(new MotionSensor(in)); break;
+                case "Device":          devices.add(new Device(in)); break;
+                default:
+                    throw new IOException("Unknown device type in snapshot: " + type);
+            }
+        }
+        return devices;
+    }
+
+    // ---- USERS ----
+
+    private static byte[] encodeUsers(List<User> users) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + users.size() * 128);
+        DataOutputStream out = header(bytes);
+        out.writeInt(users.size());
+        for (User user : users) {
+            out.writeBoolean(user instanceof HomeAdmin);
+            writeString(out, user.name);
+            writeString(out, user.username);
+            writeString(out, user.email);
+            writeString(out, user.passwordHash);
+            if (user instanceof HomeAdmin admin) {
+                out.writeBoolean(admin.isPrimaryAdmin());
+            } else {
+                HomeGuest guest = (HomeGuest) user;
+                writeString(out, guest.getGuestLockPasscode());
+                List<Device> access = guest.getAccessibleDevices();
+                out.writeInt(access.size());
+                for (Device device : access) {
+                    out.writeUTF(device.getDeviceID());
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Guest access is resolved against the devices decoded from the same snapshot.
+     */
+    private static List<User> decodeUsers(DataInputStream in, List<Device> devices) throws IOException {
+        Map<String, Device> byID = new HashMap<>(devices.size() * 2);
+        for (Device device : devices) {
+            byID.put(device.getDeviceID(), device);
+        }
+        int count = in.readInt();
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            boolean admin = in.readBoolean();
+            String name = readString(in);
+            String username = readString(in);
+            String email = readString(in);
+            String passwordHash = readString(in);
+            if (admin) {
+                users.add(new HomeAdmin(name, username, email, passwordHash, in.readBoolean()));
+                continue;
+            }
+            HomeGuest guest = new HomeGuest(name, username, email, passwordHash);
+            guest.setGuestLockPasscode(readString(in));
+            for (int n = in.readInt(); n > 0; n--) {
+                Device device = byID.get(in.readUTF());
+                if (device != null) guest.addAccessibleDevice(device);
+            }
+            users.add(guest);
+        }
+        return users;
+    }
+
+    // ---- FILES ----
+
+    private static String deviceFile(int shard) {
+        return "devices-" + shard + ".hgs";
+    }
+
+    private static DataOutputStream header(ByteArrayOutputStream bytes) throws IOException {
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        return out;
+    }
+
+    /**
+     * Append the CRC32 and replace the file atomically.
+     */
+    private static void writeFile(Path file, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        byte[] withCrc = Arrays.copyOf(data, data.length + 8);
+        long value = crc.getValue();
+        for (int i = 0; i < 8; i++) {
+            withCrc[data.length + i] = (byte) (value >>> (56 - 8 * i));
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, withCrc);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a whole file, check its header and CRC32, and return a stream
+     * positioned after the header.
+     */
+    private static DataInputStream open(Path file) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        if (data.length < 16) {
+            throw new IOException("Snapshot file too short: " + file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 8));
+        long stored = new DataInputStream(new ByteArrayInputStream(data, data.length - 8, 8)).readLong();
+        if (stored != crc.getValue() || in.readInt() != MAGIC) {
+            throw new IOException("Corrupt snapshot file: " + file);
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version + ": " + file);
+        }
+        return in;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException cause) throw cause;
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
+    // ---- FIELD HELPERS (used by the devices' writeState / restore constructors) ----
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeDateTime(DataOutputStream out, LocalDateTime value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value == null) return;
+        out.writeLong(value.toEpochSecond(ZoneOffset.UTC));    // Local time, not converted
+        out.writeInt(value.getNano());
+    }
+
+    static LocalDateTime readDateTime(DataInputStream in) throws IOException {
+        return in.readBoolean() ? LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC) : null;
+    }
+
+    static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) out.writeUTF(value);
+    }
+
+    static ArrayList<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        ArrayList<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) values.add(in.readUTF());
+        return values;
+    }
+}
@@ -1,9 +1,15 @@
 package homeguardian.system;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.ArrayList;
 
-public class Device {
+public class Device implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
 	
 	/**
 	 * Name: Nosizo Mabuza
@@ -20,12 +26,23 @@ public class Device {
 	 * connecttionStatus()
 	 * addLog()
 	 * notifyEvents()
+	 * 
+	 * Devices are sent to clients on SYNC, so the class is Serializable.
+	 * The log history stays on the server: it is kept once, in the shared
+	 * ActivityLog store, and getDeviceLogs() reads it from the store's index.
+	 * 
+	 * version / changeSeq are maintained by HGController: version counts the
+	 * changes made through the controller, changeSeq is the controller's global
+	 * change sequence at the latest one. Clients use them for delta SYNC.
 	 **/ 
 	
 	private final String deviceID; 
 	private final String deviceName;
 	private boolean connected; 
-	private final List<ActivityLog> deviceLogs; 
+	private long version;       // Number of controller changes applied to this device
+	private long changeSeq;     // Controller change sequence of the latest change
+	private transient volatile DeviceAlertListener alertListener; // Set by HGController
+	private transient volatile DeviceStateListener stateListener; // Set by the DeviceRegistry holding the device
 	
 	public Device(String deviceID, String deviceName) {
 		
@@ -33,8 +50,7 @@ public class Device {
 		this.deviceName = deviceName; 
 		// False connection is the default state as all devices are initially disconnected
 		this.connected = false;
-		this.deviceLogs = new ArrayList<>(); //-> Resulted qin an error because the ArrayList<> isn't reccognised 
-	}                                        // Had to add import java.util.ArrayList; so that the class can be used with the appropriet imports
+	}
 	
 	
 	// GETTERS
@@ -56,30 +72,97 @@ public class Device {
 		return connected; 
 	}
 	
-	// Adds a new log entry to the devices internal log history 
+	// Version of the device state, incremented on every change through the controller
+	
+	public long getVersion() {
+		return version;
+	}
+	
+	// Controller change sequence number of the latest change to this device
+	
+	public long getChangeSeq() {
+		return changeSeq;
+	}
+	
+	// Current state flags (ON/OFF, LOCKED, ARMED, ...), indexed by the controller's DeviceRegistry
+	
+	public EnumSet<DeviceFlag> getStateFlags() {
+		EnumSet<DeviceFlag> flags = EnumSet.noneOf(DeviceFlag.class);
+		addStateFlags(flags);
+		return flags;
+	}
+	
+	// Subclasses add their own flags on top of ON/OFF
+	
+	protected void addStateFlags(EnumSet<DeviceFlag> flags) {
+		flags.add(connected ? DeviceFlag.ON : DeviceFlag.OFF);
+	}
+	
+	// Called by HGController when it records a change to this device
+	
+	void markChanged(long seq) {
+		version++;
+		changeSeq = seq;
+	}
+	
+	// Adds a new log entry to the device's log history (kept in the shared ActivityLog store)
 	
 	public void addLog(String message) {
-		ActivityLog log = new ActivityLog("[Device: " + deviceName + "] " + message);
+		storeLog(LogTemplate.DEVICE_LOG, message);
 		/** line 59 resulted in an error because the ActivityLog class is not yet recognized. 
 		    This causes the code to try and create a new object of the class ActivityLog but 
 		    since it hasn't been defined in the class the compiler fails to find the definition for ActivityLog
 		
 		  - To fix this : import the definition for activity log from the activity log class 
 		**/
-		deviceLogs.add(log);
-		System.out.println("[LOG][DEVICE]" + message);
-		
+	}
+	
+	// Stored as template + arguments: "[Device: <name>] <message>" is only built when read
+	private void storeLog(LogTemplate template, String message) {
+		ActivityLog log = new ActivityLog("SYSTEM/UNKNOWN", "Device Event", deviceName, deviceID,
+				template, deviceName, message);
+		if (Log.isEnabled(LogCategory.DEVICE, LogLevel.DEBUG)) {
+			Log.debug(LogCategory.DEVICE, "[LOG][DEVICE]" + log.getMessage());
+		}
+		// Every state change is logged, whoever makes it, so this is where the registry hears of it
+		DeviceStateListener listener = stateListener;
+		if (listener != null) {
+			listener.onStateChanged(this);
+		}
 	}
 	
 	
 	// sends notifications for important device events 
 	// this can be forwarded to the servers controller or user in future instances 
-	// currently only prints to console - later integrate to the ServerController
+	// currently only logs to the console (asynchronously) - later integrate to the ServerController
 	public void notifyEvents(String eventMessage) {
-		System.out.println("[DEVICE EVENT][" + deviceName + "] " + eventMessage);
+		if (Log.isEnabled(LogCategory.DEVICE, LogLevel.INFO)) {
+			Log.info(LogCategory.DEVICE, "[DEVICE EVENT][" + deviceName + "] " + eventMessage);
+		}
 		
 		// Log the event internally
-        addLog("Event: " + eventMessage);
+		storeLog(LogTemplate.DEVICE_EVENT, eventMessage);
+	}
+	
+	// Set by HGController when the device is added, cleared when it is removed
+	
+	void setAlertListener(DeviceAlertListener alertListener) {
+		this.alertListener = alertListener;
+	}
+	
+	// Set by the DeviceRegistry when the device is added, cleared when it is removed
+	
+	void setStateListener(DeviceStateListener stateListener) {
+		this.stateListener = stateListener;
+	}
+	
+	// Raises a typed alert (motion, bad passcode, emergency) for the controller to notify users
+	
+	protected void raiseAlert(AlertType type, String message) {
+		DeviceAlertListener listener = alertListener;
+		if (listener != null) {
+			listener.onAlert(this, type, message);
+		}
 	}
 	
 	// Device's command handler 
@@ -112,8 +195,26 @@ public class Device {
         }
 	}
 	
+	// Restores a device from a snapshot record written by writeState() (see ControllerSnapshot)
+	
+	Device(DataInputStream in) throws IOException {
+		this(in.readUTF(), in.readUTF());
+		this.connected = in.readBoolean();
+		this.version = in.readLong();
+	}
+	
+	// Writes the device's state for a snapshot; subclasses append their own fields
+	
+	void writeState(DataOutputStream out) throws IOException {
+		out.writeUTF(deviceID);
+		out.writeUTF(deviceName);
+		out.writeBoolean(connected);
+		out.writeLong(version);
+	}
+	
+	// This device's logs still in the shared store, oldest first
 	public List<ActivityLog> getDeviceLogs() {
-		return deviceLogs;
+		return ActivityLog.getDeviceLogs(deviceID);
 	}
 	
 }
@@ -0,0 +1,13 @@
+package homeguardian.system;
+
+/**
+ * Class: DeviceAlertListener
+ *
+ * Description:
+ * Receives the alerts raised by a device. HGController registers itself on
+ * every device it adds and turns alerts into notifications.
+ */
+public interface DeviceAlertListener {
+
+    void onAlert(Device device, AlertType type, String message);
+}
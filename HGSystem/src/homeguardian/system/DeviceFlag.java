@@ -0,0 +1,21 @@
+package homeguardian.system;
+
+/**
+ * Class: DeviceFlag
+ *
+ * Description:
+ * State flags a device reports through Device.getStateFlags(). The
+ * DeviceRegistry indexes devices by them so queries such as "all armed
+ * alarms" or "all unlocked locks" need no scan.
+ */
+public enum DeviceFlag {
+    ON,
+    OFF,
+    ENABLED,
+    DISABLED,
+    LOCKED,
+    UNLOCKED,
+    ARMED,
+    DISARMED,
+    RECORDING
+}
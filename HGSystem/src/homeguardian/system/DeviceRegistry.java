@@ -0,0 +1,195 @@
+package homeguardian.system;
+
+/**
+ * Class: DeviceRegistry
+ *
+ * Description:
+ * Holds the controller's devices keyed by ID, with secondary indexes by
+ * device type (SmartLight, SmartLock, ...), name and state flag (ARMED,
+ * UNLOCKED, ...).
+ *
+ * Lookups by ID go through a concurrent map and take no lock. The secondary
+ * indexes are updated incrementally: on add, on remove and on refresh().
+ * The registry listens to every device it holds (DeviceStateListener), so
+ * a state change made any way - a controller command, a linked device, a
+ * direct method call - marks the device stale; find() re-indexes the stale
+ * devices before answering. A query starts from the smallest matching
+ * index and checks the other conditions by set membership, so it never
+ * scans the whole registry.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class DeviceRegistry {
+
+    // ---- PRIMARY INDEX ----
+    private final Map<String, Device> byId = new ConcurrentHashMap<>();
+
+    // ---- SECONDARY INDEXES (guarded by this) ----
+    private final Map<String, Device> inOrder = new LinkedHashMap<>();   // Registration order
+    private final Map<String, Set<Device>> byType = new HashMap<>();     // Upper-case type name
+    private final Map<String, Set<Device>> byName = new HashMap<>();
+    private final Map<DeviceFlag, Set<Device>> byFlag = new EnumMap<>(DeviceFlag.class);
+    private final Map<Device, EnumSet<DeviceFlag>> indexedFlags = new HashMap<>();
+
+    // ---- STALE DEVICES (any thread) ----
+    private final Set<Device> stale = ConcurrentHashMap.newKeySet();   // Changed since last indexed
+    private final DeviceStateListener staleMarker = stale::add;
+
+    /**
+     * Register a device.
+     * @return false if a device with the same ID is already registered
+     */
+    public synchronized boolean add(Device device) {
+        if (byId.putIfAbsent(device.getDeviceID(), device) != null) {
+            return false;
+        }
+        inOrder.put(device.getDeviceID(), device);
+        byType.computeIfAbsent(typeKey(device.getClass().getSimpleName()), k -> new LinkedHashSet<>()).add(device);
+        byName.computeIfAbsent(device.getDeviceName(), k -> new LinkedHashSet<>()).add(device);
+
+        EnumSet<DeviceFlag> flags = device.getStateFlags();
+        for (DeviceFlag flag : flags) {
+            byFlag.computeIfAbsent(flag, k -> new LinkedHashSet<>()).add(device);
+        }
+        indexedFlags.put(device, flags);
+        device.setStateListener(staleMarker);
+        return true;
+    }
+
+    /**
+     * Unregister a device.
+     * @return the removed device, or null if there was none with this ID
+     */
+    public synchronized Device remove(String deviceID) {
+        Device device = byId.remove(deviceID);
+        if (device == null) {
+            return null;
+        }
+        device.setStateListener(null);
+        stale.remove(device);
+        inOrder.remove(deviceID);
+        removeFrom(byType, typeKey(device.getClass().getSimpleName()), device);
+        removeFrom(byName, device.getDeviceName(), device);
+        for (DeviceFlag flag : indexedFlags.remove(device)) {
+            removeFrom(byFlag, flag, device);
+        }
+        return device;
+    }
+
+    /**
+     * Re-index a device's state flags after it changed.
+     */
+    public synchronized void refresh(Device device) {
+        stale.remove(device);
+        reindex(device);
+    }
+
+    /**
+     * Re-index every device marked stale since the last query.
+     */
+    private void refreshStale() {
+        for (Iterator<Device> it = stale.iterator(); it.hasNext(); ) {
+            Device device = it.next();
+            it.remove(); // Before reading its flags: a change made meanwhile marks it again
+            reindex(device);
+        }
+    }
+
+    private void reindex(Device device) {
+        EnumSet<DeviceFlag> old = indexedFlags.get(device);
+        if (old == null) {
+            return; // Not (or no longer) registered
+        }
+        EnumSet<DeviceFlag> current = device.getStateFlags();
+        if (current.equals(old)) {
+            return;
+        }
+        for (DeviceFlag flag : old) {
+            if (!current.contains(flag)) removeFrom(byFlag, flag, device);
+        }
+        for (DeviceFlag flag : current) {
+            if (!old.contains(flag)) byFlag.computeIfAbsent(flag, k -> new LinkedHashSet<>()).add(device);
+        }
+        indexedFlags.put(device, current);
+    }
+
+    // ---- LOOKUPS ----
+
+    public Device get(String deviceID) {
+        return byId.get(deviceID);
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * All devices, in registration order.
+     */
+    public synchronized List<Device> getAll() {
+        return new ArrayList<>(inOrder.values());
+    }
+
+    public synchronized List<Device> findByName(String deviceName) {
+        return new ArrayList<>(byName.getOrDefault(deviceName, Collections.emptySet()));
+    }
+
+    /**
+     * Devices of the given type (class simple name, case-insensitive; null
+     * for any type) that have every one of the given flags.
+     */
+    public synchronized List<Device> find(String type, DeviceFlag... flags) {
+        refreshStale();
+
+        // Start from the smallest index involved
+        Set<Device> typeSet = type == null ? null : byType.getOrDefault(typeKey(type), Collections.emptySet());
+        Set<Device> smallest = typeSet;
+        for (DeviceFlag flag : flags) {
+            Set<Device> flagSet = byFlag.getOrDefault(flag, Collections.emptySet());
+            if (smallest == null || flagSet.size() < smallest.size()) {
+                smallest = flagSet;
+            }
+        }
+        if (smallest == null) {
+            return getAll();
+        }
+
+        List<Device> result = new ArrayList<>();
+        for (Device device : smallest) {
+            if (typeSet != null && !typeSet.contains(device)) continue;
+            if (hasAll(indexedFlags.get(device), flags)) result.add(device);
+        }
+        return result;
+    }
+
+    private static boolean hasAll(EnumSet<DeviceFlag> indexed, DeviceFlag[] flags) {
+        for (DeviceFlag flag : flags) {
+            if (!indexed.contains(flag)) return false;
+        }
+        return true;
+    }
+
+    private static String typeKey(String type) {
+        return type.toUpperCase(Locale.ROOT);
+    }
+
+    private static <K> void removeFrom(Map<K, Set<Device>> index, K key, Device device) {
+        Set<Device> set = index.get(key);
+        if (set != null && set.remove(device) && set.isEmpty()) {
+            index.remove(key);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package homeguardian.system;
+
+/**
+ * Class: DeviceRollup
+ *
+ * Description:
+ * Activity counts for one device over one hour (or, once merged, over a
+ * longer period), built by LogRetention from the activity log:
+ *
+ *  - commandCounts: successful commands by command type (ON, LOCK, ...)
+ *  - failures: commands that failed
+ *  - locks / unlocks: successful LOCK / UNLOCK commands
+ *  - alarmTriggers: successful TRIGGER_CAM / EMERGENCY commands
+ *  - events: device events and logs
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class DeviceRollup implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String deviceID;
+    private final long fromTime;        // Start of the first hour (epoch ms)
+    private long toTime;                // End of the last hour, exclusive
+    private final TreeMap<String, Long> commandCounts = new TreeMap<>();
+    private long failures;
+    private long locks;
+    private long unlocks;
+    private long alarmTriggers;
+    private long events;
+
+    public DeviceRollup(String deviceID, long fromTime, long toTime) {
+        this.deviceID = deviceID;
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+    }
+
+    // ---- AGGREGATION ----
+
+    /**
+     * Count one activity log (of this device and period).
+     */
+    void add(ActivityLog record) {
+        switch (record.getTemplate()) {
+            case COMMAND_EXECUTED:
+                String command = record.getArgument(0);
+                commandCounts.merge(command, 1L, Long::sum);
+                switch (command) {
+                    case "LOCK":        locks++; break;
+                    case "UNLOCK":      unlocks++; break;
+                    case "TRIGGER_CAM":
+                    case "EMERGENCY":   alarmTriggers++; break;
+                    default:            break;
+                }
+                break;
+            case COMMAND_FAILED:
+                failures++;
+                break;
+            default:
+                events++;
+        }
+    }
+
+    /**
+     * Add another rollup's counts and extend this period to cover it.
+     */
+    void merge(DeviceRollup other) {
+        other.commandCounts.forEach((command, count) -> commandCounts.merge(command, count, Long::sum));
+        failures += other.failures;
+        locks += other.locks;
+        unlocks += other.unlocks;
+        alarmTriggers += other.alarmTriggers;
+        events += other.events;
+        toTime = Math.max(toTime, other.toTime);
+    }
+
+    DeviceRollup copy() {
+        DeviceRollup copy = new DeviceRollup(deviceID, fromTime, toTime);
+        copy.merge(this);
+        return copy;
+    }
+
+    // ---- STORAGE ----
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(deviceID);
+        out.writeLong(fromTime);
+        out.writeLong(toTime);
+        out.writeLong(failures);
+        out.writeLong(locks);
+        out.writeLong(unlocks);
+        out.writeLong(alarmTriggers);
+        out.writeLong(events);
+        out.writeInt(commandCounts.size());
+        for (Map.Entry<String, Long> entry : commandCounts.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    static DeviceRollup readFrom(DataInputStream in) throws IOException {
+        DeviceRollup rollup = new DeviceRollup(in.readUTF(), in.readLong(), in.readLong());
+        rollup.failures = in.readLong();
+        rollup.locks = in.readLong();
+        rollup.unlocks = in.readLong();
+        rollup.alarmTriggers = in.readLong();
+        rollup.events = in.readLong();
+        for (int i = in.readInt(); i > 0; i--) {
+            rollup.commandCounts.put(in.readUTF(), in.readLong());
+        }
+        return rollup;
+    }
+
+    // ---- GETTERS ----
+
+    public String getDeviceID() { return deviceID; }
+    public long getFromTime() { return fromTime; }
+    public long getToTime() { return toTime; }
+    public Map<String, Long> getCommandCounts() { return Collections.unmodifiableMap(commandCounts); }
+    public long getFailures() { return failures; }
+    public long getLocks() { return locks; }
+    public long getUnlocks() { return unlocks; }
+    public long getAlarmTriggers() { return alarmTriggers; }
+    public long getEvents() { return events; }
+
+    public long getCommandCount() {
+        long total = 0;
+        for (long count : commandCounts.values()) total += count;
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return deviceID + " commands=" + commandCounts + ", failures=" + failures + ", locks=" + locks
+                + ", unlocks=" + unlocks + ", alarmTriggers=" + alarmTriggers + ", events=" + events;
+    }
+}
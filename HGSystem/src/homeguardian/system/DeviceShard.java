@@ -0,0 +1,74 @@
+package homeguardian.system;
+
+/**
+ * Class: DeviceShard
+ *
+ * Description:
+ * One partition of the controller's devices. The shard's DeviceRegistry is
+ * written only by the shard's own thread: every command, add and remove for
+ * its devices is queued to that thread and applied one at a time. Commands
+ * to one device therefore run in submission order without locking the
+ * device, while devices in other shards progress in parallel.
+ *
+ * HGController picks the shard from a hash of the device ID.
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+class DeviceShard {
+
+    private final DeviceRegistry registry = new DeviceRegistry();
+    private final ExecutorService executor;
+    private volatile Thread owner;   // The shard's thread, once started
+    private volatile long lastChangeSeq;    // Controller change sequence of the shard's latest change
+
+    DeviceShard(String name) {
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            owner = t;
+            return t;
+        });
+    }
+
+    DeviceRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Run an operation on the shard's thread. Called from the shard's own
+     * thread, it runs inline instead of queueing behind itself.
+     */
+    <T> CompletableFuture<T> submit(Supplier<T> operation) {
+        if (Thread.currentThread() == owner) {
+            try {
+                return CompletableFuture.completedFuture(operation.get());
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return CompletableFuture.supplyAsync(operation, executor);
+    }
+
+    void markChanged(long changeSeq) {
+        lastChangeSeq = changeSeq;
+    }
+
+    /**
+     * Controller change sequence of the latest add, remove or change in this
+     * shard; ControllerSnapshot skips shards where it has not moved.
+     */
+    long getLastChangeSeq() {
+        return lastChangeSeq;
+    }
+
+    /**
+     * Finish queued operations, then stop the shard's thread.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+}
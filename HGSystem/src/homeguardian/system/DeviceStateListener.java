@@ -0,0 +1,14 @@
+package homeguardian.system;
+
+/**
+ * Class: DeviceStateListener
+ *
+ * Description:
+ * Told whenever a device logs a change of its own, whether it came through
+ * the controller or a direct method call. DeviceRegistry registers itself
+ * on every device it holds to keep its state-flag index current.
+ */
+public interface DeviceStateListener {
+
+    void onStateChanged(Device device);
+}
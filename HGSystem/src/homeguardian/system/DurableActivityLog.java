@@ -0,0 +1,495 @@
+package homeguardian.system;
+
+/**
+ * Class: DurableActivityLog
+ *
+ * Description:
+ * Persistent, append-only store for ActivityLog records, kept in fixed-size
+ * memory-mapped segment files in one directory. Each segment is named after
+ * the sequence of its first record (00000000000000000001.hglog) and starts
+ * with an 8-byte header (magic, version). Records follow back to back:
+ *
+ *   int  length     payload length
+ *   int  crc        CRC32C of the payload
+ *   ...  payload    sequence, timestamp, user, actionType, deviceName,
+ *                   deviceID, message (longs, then DataOutput UTF strings)
+ *   int  length     repeated, so the segment can be read backwards
+ *
+ * A new segment is started when a record does not fit or the segment is
+ * older than the roll interval. On open, the last segment is scanned from
+ * its header; the first zero length, short record or CRC mismatch marks the
+ * end of valid data (a write torn by a crash), and anything after it is
+ * cleared. A last segment whose header never reached the disk (a crash while
+ * rolling) is cleared and reused as an empty segment.
+ *
+ * Reads decode only the records they return, straight from the mapped
+ * pages: readRecent() walks backwards from the tail using the trailing
+ * lengths, readFrom() walks forwards from a sequence. Each sealed segment
+ * is mapped once and the mapping kept until the segment is deleted. Segment
+ * data lives off-heap in the page cache, so history does not grow the heap.
+ *
+ * follow() persists an ActivityLogBuffer in the background, releasing each
+ * record once written. Only a DROP_NEWEST buffer waits for that release;
+ * with OVERWRITE_OLDEST (the server's setting) records the persister falls
+ * too far behind on are overwritten unwritten. Those are counted
+ * (getMissedCount()) and logged as a warning.
+ *
+ * deleteSegmentsBefore() drops whole sealed segments whose newest record is
+ * older than a cutoff, optionally converting each to an ActivityLogArchive
+ * first; LogRetention uses it to bound the raw history. Sealed segments never
+ * change, so archiving runs without the log's lock and appends and reads go
+ * on meanwhile; the lock is taken only to pick a segment and to drop it.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+
+public class DurableActivityLog implements Closeable {
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;                    // 64 MiB
+    public static final long DEFAULT_ROLL_MILLIS = TimeUnit.HOURS.toMillis(24);
+    public static final long MIN_SEGMENT_SIZE = 1L << 20;
+
+    private static final int SEGMENT_MAGIC = 0x48474C31;   // "HGL1"
+    private static final int SEGMENT_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_OVERHEAD = 12;          // length + crc + trailing length
+    private static final int MAX_STRING_CHARS = 16 * 1024;  // Longer fields are truncated
+    private static final String SUFFIX = ".hglog";
+    private static final long FORCE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // ---- CONFIGURATION ----
+    private final Path directory;
+    private final long segmentSize;
+    private final long rollMillis;
+
+    // ---- SEGMENTS ----
+    private final NavigableMap<Long, Path> segments = new TreeMap<>();  // First sequence -> file
+    private final Map<Long, Integer> sealedEnds = new HashMap<>();      // Cached end of older segments
+    private final Map<Long, ByteBuffer> sealedMappings = new HashMap<>(); // Read-only views of older segments
+    private FileChannel activeChannel;
+    private MappedByteBuffer active;         // Tail segment, mapped read-write
+    private long activeFirstSequence;
+    private long activeOpenedAt;             // For rolling by time
+    private long lastSequence;               // Highest sequence written
+
+    // ---- WRITING ----
+    private final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream payloadOut = new DataOutputStream(payloadBytes);
+    private final CRC32C crc = new CRC32C();
+
+    // ---- FOLLOWING ----
+    private Thread follower;
+    private volatile boolean following;
+    private volatile long missedCount;      // Records overwritten in the buffer before being persisted
+
+    // ---- RETENTION ----
+    private final Object deleteLock = new Object();   // One deleteSegmentsBefore() at a time
+
+    public static DurableActivityLog open(Path directory) throws IOException {
+        return new DurableActivityLog(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_ROLL_MILLIS);
+    }
+
+    public DurableActivityLog(Path directory, long segmentSize, long rollMillis) throws IOException {
+        if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > Integer.MAX_VALUE || rollMillis < 1) {
+            throw new IllegalArgumentException("Invalid segment size or roll interval");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.rollMillis = rollMillis;
+
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        if (!segments.isEmpty()) {
+            recoverTail();
+        }
+    }
+
+    /**
+     * Reopen the last segment and find the end of its valid records.
+     */
+    private void recoverTail() throws IOException {
+        Map.Entry<Long, Path> last = segments.lastEntry();
+        activeFirstSequence = last.getKey();
+        activeChannel = FileChannel.open(last.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long fileSize = activeChannel.size();
+        active = activeChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, fileSize));
+        activeOpenedAt = System.currentTimeMillis();
+
+        if (fileSize < HEADER_SIZE || active.getInt(0) == 0) {
+            // Crashed while rolling, before the header was written: start the segment over
+            clear(active, 0);
+            active.putInt(0, SEGMENT_MAGIC).putInt(4, SEGMENT_VERSION);
+        } else if (active.getInt(0) != SEGMENT_MAGIC) {
+            throw new IOException("Not an activity log segment: " + last.getValue());
+        }
+        int end = scanEnd(active);
+        lastSequence = end > HEADER_SIZE
+                ? active.getLong(end - 4 - active.getInt(end - 4))
+                : activeFirstSequence - 1;
+
+        // Clear a torn record left by a crash so it cannot be mistaken for data
+        if (end + 4 <= active.capacity() && active.getInt(end) != 0) {
+            clear(active, end);
+        }
+        active.position(end);
+    }
+
+    private static void clear(ByteBuffer segment, int from) {
+        for (int i = from; i < segment.capacity(); i++) {
+            segment.put(i, (byte) 0);
+        }
+    }
+
+    /**
+     * Offset just past the last valid record in a segment.
+     */
+    private int scanEnd(ByteBuffer segment) {
+        int pos = HEADER_SIZE;
+        CRC32C check = new CRC32C();
+        while (pos + RECORD_OVERHEAD <= segment.capacity()) {
+            int length = segment.getInt(pos);
+            if (length <= 0 || length > segment.capacity() - pos - RECORD_OVERHEAD) break;
+            if (segment.getInt(pos + 8 + length) != length) break;
+            check.reset();
+            check.update(segment.slice(pos + 8, length));
+            if ((int) check.getValue() != segment.getInt(pos + 4)) break;
+            pos += RECORD_OVERHEAD + length;
+        }
+        return pos;
+    }
+
+    // ---- WRITING ----
+
+    /**
+     * Append a record. Records at or below the last written sequence are
+     * ignored, so replaying the same records is harmless.
+     */
+    public synchronized void append(ActivityLog record) throws IOException {
+        if (record.getSequence() <= lastSequence) return;
+
+        payloadBytes.reset();
+        payloadOut.writeLong(record.getSequence());
+        payloadOut.writeLong(record.getTimestamp());
+        writeString(record.getUser());
+        writeString(record.getActionType());
+        writeString(record.getDeviceName());
+        writeString(record.getDeviceID());
+        writeString(record.getMessage());
+        int length = payloadBytes.size();
+
+        long now = System.currentTimeMillis();
+        if (active == null
+                || active.remaining() < RECORD_OVERHEAD + length
+                || (now - activeOpenedAt >= rollMillis && active.position() > HEADER_SIZE)) {
+            roll(record.getSequence());
+        }
+
+        byte[] payload = payloadBytes.toByteArray();
+        crc.reset();
+        crc.update(payload);
+        active.putInt(length).putInt((int) crc.getValue()).put(payload).putInt(length);
+        lastSequence = record.getSequence();
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) value = "";
+        if (value.length() > MAX_STRING_CHARS) value = value.substring(0, MAX_STRING_CHARS);
+        payloadOut.writeUTF(value);
+    }
+
+    /**
+     * Seal the current segment and start a new one at firstSequence.
+     */
+    private void roll(long firstSequence) throws IOException {
+        if (active != null) {
+            sealedEnds.put(activeFirstSequence, active.position());
+            sealedMappings.put(activeFirstSequence, active.asReadOnlyBuffer()); // Mapping outlives the channel
+            active.force();
+            activeChannel.close();
+        }
+        Path file = directory.resolve(String.format("%020d%s", firstSequence, SUFFIX));
+        activeChannel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        active = activeChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        active.putInt(SEGMENT_MAGIC).putInt(SEGMENT_VERSION);
+        activeFirstSequence = firstSequence;
+        activeOpenedAt = System.currentTimeMillis();
+        segments.put(firstSequence, file);
+    }
+
+    /**
+     * Write the mapped pages of the current segment to disk.
+     */
+    public synchronized void force() {
+        if (active != null) active.force();
+    }
+
+    // ---- READING ----
+
+    /**
+     * The newest records, oldest first.
+     */
+    public synchronized List<ActivityLog> readRecent(int maxRecords) throws IOException {
+        List<ActivityLog> result = new ArrayList<>();
+        for (Long first : segments.descendingKeySet()) {
+            ByteBuffer segment = segmentFor(first);
+            int pos = endOf(first, segment);
+            while (pos > HEADER_SIZE && result.size() < maxRecords) {
+                int length = segment.getInt(pos - 4);
+                pos -= RECORD_OVERHEAD + length;
+                result.add(decode(segment, pos + 8, length));
+            }
+            if (result.size() >= maxRecords) break;
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Up to maxRecords records starting at the given sequence, oldest first.
+     */
+    public synchronized List<ActivityLog> readFrom(long sequence, int maxRecords) throws IOException {
+        List<ActivityLog> result = new ArrayList<>();
+        Long start = segments.floorKey(sequence);
+        if (start == null) start = segments.isEmpty() ? null : segments.firstKey();
+        if (start == null) return result;
+
+        for (Long first : segments.tailMap(start, true).keySet()) {
+            ByteBuffer segment = segmentFor(first);
+            int end = endOf(first, segment);
+            int pos = HEADER_SIZE;
+            while (pos < end && result.size() < maxRecords) {
+                int length = segment.getInt(pos);
+                if (segment.getLong(pos + 8) >= sequence) {
+                    result.add(decode(segment, pos + 8, length));
+                }
+                pos += RECORD_OVERHEAD + length;
+            }
+            if (result.size() >= maxRecords) break;
+        }
+        return result;
+    }
+
+    // ---- RETENTION ----
+
+    /**
+     * Delete sealed segments, oldest first, whose newest record is older
+     * than cutoffMillis. The segment being written is never deleted.
+     * @return number of segments deleted
+     */
+    public int deleteSegmentsBefore(long cutoffMillis) throws IOException {
+        return deleteSegmentsBefore(cutoffMillis, null);
+    }
+
+    /**
+     * As above, first writing each segment's records to
+     * archiveDirectory/<first sequence>.hga (unless archiveDirectory is null).
+     * The archive is written without holding the log's lock.
+     */
+    public int deleteSegmentsBefore(long cutoffMillis, Path archiveDirectory) throws IOException {
+        synchronized (deleteLock) {
+            int deleted = 0;
+            while (true) {
+                long first;
+                ByteBuffer segment;
+                int end;
+                synchronized (this) {
+                    if (segments.size() <= 1) break;
+                    first = segments.firstKey();
+                    if (active != null && first == activeFirstSequence) break;
+
+                    segment = segmentFor(first).duplicate(); // Sealed: safe to read unlocked
+                    end = endOf(first, segment);
+                    if (end > HEADER_SIZE) {
+                        int length = segment.getInt(end - 4);
+                        long newest = segment.getLong(end - 4 - length + 8); // Timestamp follows the sequence
+                        if (newest >= cutoffMillis) break;
+                    }
+                }
+                if (archiveDirectory != null) {
+                    archive(segment, end, archiveDirectory.resolve(String.format("%020d%s", first, ActivityLogArchive.SUFFIX)));
+                }
+                synchronized (this) {
+                    Files.deleteIfExists(segments.remove(first)); // Only removed here, under deleteLock
+                    sealedEnds.remove(first);
+                    sealedMappings.remove(first);
+                }
+                deleted++;
+            }
+            return deleted;
+        }
+    }
+
+    private static void archive(ByteBuffer segment, int end, Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (ActivityLogArchive.Writer writer = ActivityLogArchive.create(file)) {
+            int pos = HEADER_SIZE;
+            while (pos < end) {
+                int length = segment.getInt(pos);
+                writer.append(decode(segment, pos + 8, length));
+                pos += RECORD_OVERHEAD + length;
+            }
+        }
+    }
+
+    /**
+     * Timestamp of the oldest record on disk, or -1 if there is none.
+     */
+    public synchronized long getOldestTimestamp() throws IOException {
+        for (Long first : segments.keySet()) {
+            ByteBuffer segment = segmentFor(first);
+            if (endOf(first, segment) > HEADER_SIZE) {
+                return segment.getLong(HEADER_SIZE + 16); // length, crc, sequence, then timestamp
+            }
+        }
+        return -1;
+    }
+
+    private ByteBuffer segmentFor(long first) throws IOException {
+        if (active != null && first == activeFirstSequence) {
+            return active;
+        }
+        ByteBuffer mapped = sealedMappings.get(first);
+        if (mapped == null) {
+            try (FileChannel channel = FileChannel.open(segments.get(first), StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // Mapping outlives the channel
+            }
+            sealedMappings.put(first, mapped);
+        }
+        return mapped;
+    }
+
+    private int endOf(long first, ByteBuffer segment) {
+        if (segment == active) return active.position();
+        return sealedEnds.computeIfAbsent(first, k -> scanEnd(segment));
+    }
+
+    private static ActivityLog decode(ByteBuffer segment, int offset, int length) throws IOException {
+        byte[] payload = new byte[length];
+        segment.get(offset, payload);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        long sequence = in.readLong();
+        long timestamp = in.readLong();
+        return new ActivityLog(sequence, timestamp, in.readUTF(), in.readUTF(),
+                in.readUTF(), in.readUTF(), in.readUTF());
+    }
+
+    // ---- FOLLOWING A BUFFER ----
+
+    /**
+     * Persist everything appended to the buffer from now on (and whatever it
+     * still holds past getLastSequence()) on a background thread.
+     */
+    public synchronized void follow(ActivityLogBuffer buffer) {
+        if (follower != null) {
+            throw new IllegalStateException("Already following a log buffer");
+        }
+        ActivityLogCursor cursor = buffer.cursorFrom(lastSequence + 1);
+        following = true;
+        follower = new Thread(() -> persist(buffer, cursor), "hg-log-persister");
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    private void persist(ActivityLogBuffer buffer, ActivityLogCursor cursor) {
+        long lastForce = System.nanoTime();
+        try {
+            while (true) {
+                boolean wrote = false;
+                ActivityLog record;
+                while ((record = cursor.poll()) != null) {
+                    append(record);
+                    wrote = true;
+                }
+                long missed = cursor.getMissedCount();
+                if (missed > missedCount) {
+                    Log.warn(LogCategory.SYSTEM, "Activity log persistence fell behind: "
+                            + (missed - missedCount) + " records overwritten before being written");
+                    missedCount = missed;
+                }
+                if (wrote) {
+                    buffer.release(getLastSequence());
+                }
+                if (System.nanoTime() - lastForce >= FORCE_INTERVAL_NANOS) {
+                    force();
+                    lastForce = System.nanoTime();
+                }
+                if (!following) break;
+                if (!wrote) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.error(LogCategory.SYSTEM, "Activity log persistence stopped: " + e);
+        }
+    }
+
+    /**
+     * Stop following, write what remains and close the current segment.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread running;
+        synchronized (this) {
+            running = follower;
+            following = false;
+        }
+        if (running != null) {
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (active != null) {
+                active.force();
+                activeChannel.close();
+                active = null;
+            }
+            sealedMappings.clear();
+        }
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /** Records that were overwritten in the followed buffer before they could be persisted */
+    public long getMissedCount() {
+        return missedCount;
+    }
+}
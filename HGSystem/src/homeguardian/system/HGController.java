@@ -12,25 +12,71 @@ package homeguardian.system;
  * Student Number: 1196208
  * 
  *added the device removal method 
+ *
+ * Devices are partitioned by ID hash into DeviceShards. Each shard has one
+ * thread that applies every command, add and remove for its devices in
+ * order, so independent devices are controlled in parallel on all cores.
+ * controlDeviceAsync() returns as soon as the command is queued;
+ * controlDevice() waits for it.
  */
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
 
 public class HGController {
 
-    private final List<ActivityLog> activityLogs;
-    private final List<Notification> notifications;
-    private final List<Device> deviceList; 
+    public static final int NOTIFICATION_HISTORY = 1000;    // Newest notifications kept across all users
+
+    private final ArrayDeque<Notification> notifications = new ArrayDeque<>(); // Bounded; guarded by itself
+    private final NotificationDispatcher notificationDispatcher;  // Asynchronous, prioritized delivery
+    private final ConcurrentHashMap<String, NotificationInbox> inboxes = new ConcurrentHashMap<>(); // By Notification.getUserID()
+    private volatile int inboxCapacity = NotificationInbox.DEFAULT_CAPACITY;
+    private final NotificationCoalescer alertCoalescer;  // Merges repeated device alerts
+    private final DeviceShard[] shards;     // Devices by ID hash; each shard has its own registry and thread
     private final List<User> userList;
+    private volatile LogRetention logRetention; // Hourly rollups of the activity log, if enabled
+
+    // -------------------- CHANGE TRACKING --------------------
+    // Every device change gets the next global sequence number. changeIndex holds
+    // each live device once, under the sequence of its latest change, so
+    // "changed since N" is a tail of the map. Removed devices are kept as a
+    // bounded set of tombstones; a client older than the evicted tombstones
+    // gets a full snapshot instead of a delta.
+    public static final int MAX_TOMBSTONES = 1024;
+
+    private final Object changeLock = new Object();
+    private long changeSeq = 0;
+    private long tombstoneHorizon = 0;                              // Highest evicted tombstone
+    private final TreeMap<Long, Device> changeIndex = new TreeMap<>();
+    private final TreeMap<Long, String> removedIndex = new TreeMap<>();
 
     // -------------------- CONSTRUCTOR --------------------
     public HGController() {
-        this.activityLogs = new ArrayList<>();
-        this.notifications = new ArrayList<>();
-        this.deviceList = new ArrayList<>();
-        this.userList = new ArrayList<>();
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public HGController(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be at least 1");
+        }
+        this.notificationDispatcher = new NotificationDispatcher();
+        notificationDispatcher.addChannel(ConsoleNotificationChannel.INSTANCE);
+        this.alertCoalescer = new NotificationCoalescer(NotificationCoalescer.DEFAULT_WINDOW_MILLIS,
+                NotificationCoalescer.DEFAULT_MAX_SPAN_MILLIS, this::send);
+        this.userList = new CopyOnWriteArrayList<>();
+        this.shards = new DeviceShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new DeviceShard("hg-shard-" + i);
+        }
     }
 
     // -------------------- DEVICE REGISTRATION --------------------
@@ -39,9 +85,16 @@ public class HGController {
      * Added for test driver testing.
      */
     public void addDevice(Device device) {
-        if (device != null && !deviceList.contains(device)) {
-            deviceList.add(device);
-            logActivity("New device added: " + device.getDeviceName() + " (" + device.getDeviceID() + ")");
+        if (device == null) return;
+        DeviceShard shard = shardFor(device.getDeviceID());
+        boolean added = await(shard.submit(() -> {
+            if (!shard.getRegistry().add(device)) return false;
+            recordChange(device);
+            return true;
+        }));
+        if (added) {
+            device.setAlertListener(this::onDeviceAlert);
+            logActivity(LogTemplate.DEVICE_ADDED, device.getDeviceName(), device.getDeviceID());
         }
     }
 
@@ -50,41 +103,249 @@ public class HGController {
      * Control a device using its ID and a command string (ON, OFF, LOCK, UNLOCK)
      */
     public boolean controlDevice(String deviceID, String command) {
-        Optional<Device> deviceOpt = findDeviceByID(deviceID);
-        if (deviceOpt.isEmpty()) {
-            logActivity("Device with ID " + deviceID + " can't be found.");
+        return await(controlDeviceAsync(deviceID, command));
+    }
+
+    /**
+     * Queue a command on the shard owning the device. Commands to the same
+     * device complete in the order they were queued.
+     * @return completes with the command's success once it has run
+     */
+    public CompletableFuture<Boolean> controlDeviceAsync(String deviceID, String command) {
+        if (deviceID == null) {
+            logActivity(LogTemplate.DEVICE_NOT_FOUND, null, null);
+            return CompletableFuture.completedFuture(false);
+        }
+        DeviceShard shard = shardFor(deviceID);
+        return shard.submit(() -> applyCommand(shard.getRegistry(), deviceID, command));
+    }
+
+    /**
+     * Runs on the shard's thread.
+     */
+    private boolean applyCommand(DeviceRegistry devices, String deviceID, String command) {
+        Device device = devices.get(deviceID);
+        if (device == null) {
+            logActivity(LogTemplate.DEVICE_NOT_FOUND, deviceID, null);
             return false;
         }
 
-        Device device = deviceOpt.get();
         boolean success = device.handleCommand(command);
-        String statusMessage = success 
-            ? "Command '" + command + "' executed on device " + deviceID
-            : "Failed to execute command '" + command + "' on device " + deviceID;
-        logActivity(statusMessage);
+        if (success) {
+            devices.refresh(device); // Keep the state-flag index current
+            recordChange(device);
+        }
+        new ActivityLog("SYSTEM/UNKNOWN", "Device Command", device.getDeviceName(), deviceID,
+                success ? LogTemplate.COMMAND_EXECUTED : LogTemplate.COMMAND_FAILED, command, deviceID);
         return success;
     }
 
-    private Optional<Device> findDeviceByID(String deviceID) {
-        return deviceList.stream()
-                .filter(d -> d.getDeviceID().equals(deviceID))
-                .findFirst();
+    /**
+     * Look up a registered device, or null if there is none with this ID.
+     */
+    public Device getDevice(String deviceID) {
+        return deviceID == null ? null : shardFor(deviceID).getRegistry().get(deviceID);
+    }
+
+    /**
+     * Devices of a type (e.g. "Alarm", null for any) having all the given
+     * flags, e.g. findDevices("Alarm", DeviceFlag.ARMED). Answered from the
+     * registry's indexes.
+     */
+    public List<Device> findDevices(String type, DeviceFlag... flags) {
+        List<Device> result = new ArrayList<>();
+        for (DeviceShard shard : shards) {
+            result.addAll(shard.getRegistry().find(type, flags));
+        }
+        return result;
+    }
+
+    public List<Device> findDevicesByName(String deviceName) {
+        List<Device> result = new ArrayList<>();
+        for (DeviceShard shard : shards) {
+            result.addAll(shard.getRegistry().findByName(deviceName));
+        }
+        return result;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Stop the shard threads once their queued commands have run, then the notification workers.
+     */
+    public void shutdown() {
+        for (DeviceShard shard : shards) {
+            shard.shutdown();
+        }
+        alertCoalescer.shutdown();
+        notificationDispatcher.shutdown();
+    }
+
+    private DeviceShard shardFor(String deviceID) {
+        return shards[shardIndex(deviceID)];
+    }
+
+    private int shardIndex(String deviceID) {
+        int hash = deviceID.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+
+    /**
+     * Wait for a shard operation, rethrowing its exception unwrapped.
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw e;
+        }
     }
     
     // -------------------- DEVICE REMOVAL --------------------
     public boolean removeDevice(String deviceID) {
-        Optional<Device> deviceOpt = findDeviceByID(deviceID);
-        if (deviceOpt.isEmpty()) {
-            logActivity("Device with ID " + deviceID + " not found for removal.");
+        if (deviceID == null) return false;
+        DeviceShard shard = shardFor(deviceID);
+        Device device = await(shard.submit(() -> {
+            Device removed = shard.getRegistry().remove(deviceID);
+            if (removed != null) recordRemoval(removed);
+            return removed;
+        }));
+        if (device == null) {
+            logActivity(LogTemplate.DEVICE_NOT_FOUND_FOR_REMOVAL, deviceID, null);
             return false;
         }
-        Device device = deviceOpt.get();
-        deviceList.remove(device);
-        logActivity("Device removed: " + device.getDeviceName() + " (" + deviceID + ")");
+        device.setAlertListener(null);
+        logActivity(LogTemplate.DEVICE_REMOVED, device.getDeviceName(), deviceID);
         return true;
     }
 
 
+    // -------------------- CHANGE TRACKING --------------------
+    private void recordChange(Device device) {
+        synchronized (changeLock) {
+            changeIndex.remove(device.getChangeSeq());
+            device.markChanged(++changeSeq);
+            changeIndex.put(device.getChangeSeq(), device);
+            shardFor(device.getDeviceID()).markChanged(changeSeq);
+        }
+    }
+
+    private void recordRemoval(Device device) {
+        synchronized (changeLock) {
+            changeIndex.remove(device.getChangeSeq());
+            removedIndex.put(++changeSeq, device.getDeviceID());
+            shardFor(device.getDeviceID()).markChanged(changeSeq);
+            if (removedIndex.size() > MAX_TOMBSTONES) {
+                tombstoneHorizon = removedIndex.pollFirstEntry().getKey();
+            }
+        }
+    }
+
+    /**
+     * Current value of the global change sequence.
+     */
+    public long getChangeSeq() {
+        synchronized (changeLock) {
+            return changeSeq;
+        }
+    }
+
+    /**
+     * Returns up to maxDevices changes made after sinceSeq, oldest first.
+     * A client that is new (sinceSeq 0), ahead of this controller (e.g. after a
+     * restart) or older than the retained tombstones receives a full snapshot.
+     */
+    public SyncPage getChangesSince(long sinceSeq, int maxDevices) {
+        synchronized (changeLock) {
+            boolean fullSnapshot = sinceSeq <= 0 || sinceSeq < tombstoneHorizon || sinceSeq > changeSeq;
+            long from = fullSnapshot ? 0 : sinceSeq;
+
+            Iterator<Map.Entry<Long, Device>> live = changeIndex.tailMap(from, false).entrySet().iterator();
+            Iterator<Map.Entry<Long, String>> dead = fullSnapshot
+                    ? Collections.emptyIterator()
+                    : removedIndex.tailMap(from, false).entrySet().iterator();
+
+            List<Device> devices = new ArrayList<>();
+            List<String> removed = new ArrayList<>();
+            Map.Entry<Long, Device> nextLive = live.hasNext() ? live.next() : null;
+            Map.Entry<Long, String> nextDead = dead.hasNext() ? dead.next() : null;
+            long nextSeq = from;
+
+            // Merge both indexes in sequence order
+            while ((nextLive != null || nextDead != null) && devices.size() + removed.size() < maxDevices) {
+                if (nextDead == null || (nextLive != null && nextLive.getKey() < nextDead.getKey())) {
+                    devices.add(nextLive.getValue());
+                    nextSeq = nextLive.getKey();
+                    nextLive = live.hasNext() ? live.next() : null;
+                } else {
+                    removed.add(nextDead.getValue());
+                    nextSeq = nextDead.getKey();
+                    nextDead = dead.hasNext() ? dead.next() : null;
+                }
+            }
+
+            boolean hasMore = nextLive != null || nextDead != null;
+            if (!hasMore) {
+                nextSeq = changeSeq;
+            }
+            return new SyncPage(sinceSeq, nextSeq, fullSnapshot, hasMore, devices, removed);
+        }
+    }
+
+    // -------------------- SNAPSHOTS (ControllerSnapshot) --------------------
+    /**
+     * Run an operation on shard i's thread, with its registry.
+     */
+    <T> CompletableFuture<T> onShard(int index, Function<DeviceRegistry, T> operation) {
+        DeviceShard shard = shards[index];
+        return shard.submit(() -> operation.apply(shard.getRegistry()));
+    }
+
+    long getShardChangeSeq(int index) {
+        return shards[index].getLastChangeSeq();
+    }
+
+    /**
+     * Register devices restored from a snapshot: one task per shard, all shards
+     * in parallel, with one activity log for the lot. Change sequences continue
+     * after the snapshot's, so clients' delta SYNC sees every device as changed.
+     */
+    void restoreDevices(List<Device> devices, long snapshotChangeSeq) {
+        synchronized (changeLock) {
+            changeSeq = Math.max(changeSeq, snapshotChangeSeq);
+        }
+        List<List<Device>> byShard = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            byShard.add(new ArrayList<>());
+        }
+        for (Device device : devices) {
+            byShard.get(shardIndex(device.getDeviceID())).add(device);
+        }
+        List<CompletableFuture<Integer>> restored = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            List<Device> shardDevices = byShard.get(i);
+            restored.add(onShard(i, registry -> {
+                int added = 0;
+                for (Device device : shardDevices) {
+                    if (!registry.add(device)) continue;
+                    recordChange(device);
+                    device.setAlertListener(this::onDeviceAlert);
+                    added++;
+                }
+                return added;
+            }));
+        }
+        int total = 0;
+        for (CompletableFuture<Integer> shard : restored) {
+            total += await(shard);
+        }
+        logActivity("Restored " + total + " devices from snapshot");
+    }
+
     // -------------------- USER MANAGEMENT --------------------
     public void addUser(User user) {
         if (user != null && !userList.contains(user)) {
@@ -103,36 +364,175 @@ public class HGController {
 
     // -------------------- ACTIVITY LOGGING --------------------
     public void logActivity(String message) {
-        ActivityLog log = new ActivityLog(message);
-        activityLogs.add(log);
+        new ActivityLog(message); // Stored in the shared ActivityLog store
+    }
+
+    /**
+     * Log a templated message; the text is only built if the log is read.
+     */
+    public void logActivity(LogTemplate template, String arg0, String arg1) {
+        new ActivityLog("SYSTEM/UNKNOWN", "Basic Log", "N/A", "N/A", template, arg0, arg1);
     }
 
+    /**
+     * The most recent logs, oldest first. Use ActivityLog.cursor() to read
+     * them without copying.
+     */
     public List<ActivityLog> getAllLogs() {
-        return Collections.unmodifiableList(activityLogs);
+        return ActivityLog.getAllLogs();
+    }
+
+    /**
+     * Logs after afterSequence in [fromTime, toTime] for a device and/or
+     * user (null for any), oldest first, at most limit per page. Pass the
+     * page's nextSequence as afterSequence to read on. Answered from the
+     * log store's index, e.g. everything for D002 last night:
+     *   queryLogs(evening, morning, "D002", null, 0, 100)
+     */
+    public LogPage queryLogs(long fromTime, long toTime, String deviceID, String user,
+                             long afterSequence, int limit) {
+        return ActivityLog.query(fromTime, toTime, deviceID, user, afterSequence, limit);
+    }
+
+    /**
+     * Use this retention engine's rollups for getDeviceStats().
+     */
+    public void setLogRetention(LogRetention logRetention) {
+        this.logRetention = logRetention;
+    }
+
+    /**
+     * A device's activity counts (commands by type, failures, locks, alarm
+     * triggers) over [fromTime, toTime] in whole hours. Read from the hourly
+     * rollups, so it also covers periods whose raw logs have been dropped.
+     */
+    public DeviceRollup getDeviceStats(String deviceID, long fromTime, long toTime) {
+        LogRetention retention = logRetention;
+        if (retention == null) {
+            throw new IllegalStateException("Log retention is not enabled");
+        }
+        return retention.summarize(deviceID, fromTime, toTime);
     }
 
     // -------------------- NOTIFICATIONS --------------------
+    // Notifications are recorded here and delivered asynchronously by the dispatcher,
+    // so callers (device shards included) never wait on a delivery channel.
     public void notifyUser(User user, String message) {
+        notifyUser(user, message, NotificationPriority.INFO);
+    }
+
+    public void notifyUser(User user, String message, NotificationPriority priority) {
         if (user == null || message == null || message.isBlank()) return;
-        Notification notification = new Notification(user, message);
-        notifications.add(notification);
+        send(new Notification(user, message, priority));
+    }
+
+    /**
+     * Notify every HomeAdmin, e.g. of a security event.
+     */
+    public void notifyAdmins(String message, NotificationPriority priority) {
+        if (message == null || message.isBlank()) return;
+        for (User user : userList) {
+            if (user instanceof HomeAdmin) {
+                send(new Notification(user, message, priority));
+            }
+        }
+    }
+
+    /**
+     * Alerts raised by registered devices. Emergencies go out at once; repeats of
+     * other alerts to the same admin from the same device are merged.
+     */
+    private void onDeviceAlert(Device device, AlertType type, String message) {
+        if (type.getPriority() == NotificationPriority.EMERGENCY) {
+            notifyEmergencyServices(message);
+            return;
+        }
+        for (User user : userList) {
+            if (user instanceof HomeAdmin) {
+                alertCoalescer.offer(user, device.getDeviceID(), type, message);
+            }
+        }
+    }
+
+    public NotificationCoalescer getAlertCoalescer() {
+        return alertCoalescer;
     }
 
     public void notifyEmergencyServices(String message) {
-        Notification emergencyNotification = new Notification(null, "[EMERGENCY]" + message);
-        notifications.add(emergencyNotification);
-        logActivity("Emergency services notified: " + message);
-        System.out.println("Emergency services notified: " + message);
+        send(new Notification(null, "[EMERGENCY]" + message, NotificationPriority.EMERGENCY));
+        notifyAdmins("[EMERGENCY]" + message, NotificationPriority.EMERGENCY);
+        logActivity(LogTemplate.EMERGENCY_NOTIFIED, message, null);
+        Log.warn(LogCategory.SYSTEM, "Emergency services notified: " + message);
+    }
+
+    private void send(Notification notification) {
+        synchronized (notifications) {
+            if (notifications.size() == NOTIFICATION_HISTORY) {
+                notifications.removeFirst(); // Still in its recipient's inbox, if not evicted there
+            }
+            notifications.addLast(notification);
+        }
+        inboxes.computeIfAbsent(notification.getUserID(), id -> new NotificationInbox(id, inboxCapacity))
+                .add(notification);
+        notificationDispatcher.dispatch(notification);
+    }
+
+    /**
+     * One page of a user's notifications, newest first, from their own inbox.
+     * @param before getNextBefore() of the previous page, or 0 for the newest
+     */
+    public NotificationPage getInbox(String userID, long before, int limit) {
+        NotificationInbox inbox = inboxes.get(userID);
+        if (inbox == null) {
+            if (limit < 1) throw new IllegalArgumentException("Limit must be at least 1");
+            return new NotificationPage(userID, List.of(), 0, false, 0);
+        }
+        return inbox.page(before, limit);
+    }
+
+    public int getUnreadCount(String userID) {
+        NotificationInbox inbox = inboxes.get(userID);
+        return inbox == null ? 0 : inbox.getUnreadCount();
+    }
+
+    public boolean markNotificationRead(String userID, String notificationID) {
+        NotificationInbox inbox = inboxes.get(userID);
+        return inbox != null && inbox.markRead(notificationID);
+    }
+
+    public void markAllNotificationsRead(String userID) {
+        NotificationInbox inbox = inboxes.get(userID);
+        if (inbox != null) inbox.markAllRead();
+    }
+
+    /**
+     * Notifications kept per user inbox (applies to inboxes created afterwards).
+     */
+    public void setInboxCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Inbox capacity must be at least 1");
+        }
+        this.inboxCapacity = capacity;
+    }
+
+    public NotificationDispatcher getNotificationDispatcher() {
+        return notificationDispatcher;
     }
 
     // -------------------- NEW METHODS ADDED BY RAWAN --------------------
-    // Returns an unmodifiable list of all notifications
+    // Returns a copy of the newest NOTIFICATION_HISTORY notifications, oldest first
     public List<Notification> getAllNotifications() {
-        return Collections.unmodifiableList(notifications);
+        synchronized (notifications) {
+            return new ArrayList<>(notifications);
+        }
     }
 
-    // Returns an unmodifiable list of all devices
+    // Returns a snapshot of all devices, shard by shard (registration order within a shard)
     public List<Device> getAllDevices() {
-        return Collections.unmodifiableList(deviceList);
+        List<Device> result = new ArrayList<>();
+        for (DeviceShard shard : shards) {
+            result.addAll(shard.getRegistry().getAll());
+        }
+        return result;
     }
 }
@@ -1,6 +1,9 @@
 package homeguardian.system;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Author: Rawan Genina
@@ -14,6 +17,23 @@ import java.util.List;
  * Initializes the HGController, registers all smart-home devices 
  * (Light, Lock, Alarm, Camera), creates admin and guest users, 
  * and starts the server to listen for incoming client commands.
+ *
+ * Usage: HomeGuardianServerMain [--mode=platform|virtual|nio] [--log-dir=<path>]
+ *                               [--raw-retention-days=<n>] [--snapshot-dir=<path>]
+ *   platform - one platform thread per client (default)
+ *   virtual  - one virtual thread per client
+ *   nio      - non-blocking selector threads, one per core
+ *   log-dir  - keep the activity log on disk in this directory
+ *              (DurableActivityLog); history survives restarts
+ *   raw-retention-days - days of raw logs kept on disk (default 7); older
+ *              history is kept as hourly per-device rollups (LogRetention)
+ *              and, with log-dir, as compressed archives in <log-dir>/archive
+ *   snapshot-dir - restore devices and users from the snapshot in this
+ *              directory (instead of the built-in demo setup) and save
+ *              changes to it periodically and on shutdown (ControllerSnapshot).
+ *              A snapshot that cannot be restored is moved to
+ *              <snapshot-dir>/corrupt-<time>; if that fails the server does
+ *              not start, so the snapshot is never overwritten.
  */
 
 
@@ -23,11 +43,56 @@ public class HomeGuardianServerMain {
 
         System.out.println("=== Home Guardian Server Starting ===");
 
+        // ------------------------------
+        // 0. Durable activity log (optional)
+        // ------------------------------
+        DurableActivityLog durableLog = openDurableLog(args);
+        LogRetention retention = startRetention(args, durableLog);
+
         // ------------------------------
         // 1. Create the controller
         // ------------------------------
-        HGController controller = new HGController();
+        HGController controller = createController(retention);
+
+        // ------------------------------
+        // 2-3. Devices and users: from the snapshot, or the demo setup
+        // ------------------------------
+        Path snapshotDir = parseSnapshotDir(args);
+        boolean restored;
+        try {
+            restored = restoreSnapshot(controller, snapshotDir);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("[SETUP] Cannot restore snapshot: " + e.getMessage());
+            controller.shutdown();
+            if (!moveSnapshotAside(snapshotDir)) {
+                System.exit(1);
+            }
+            controller = createController(retention); // Nothing half-restored left behind
+            restored = false;
+        }
+        if (!restored) {
+            registerDefaults(controller);
+        }
+        startSnapshots(controller, snapshotDir);
+
+        // ------------------------------
+        // 4. Start the server (LISTEN)
+        // ------------------------------
+        int PORT = 12345;
+        Server server = new Server(PORT, controller);
+        server.setConnectionMode(parseConnectionMode(args));
 
+        System.out.println("[SERVER] Starting server on port " + PORT
+                + " (" + server.getConnectionMode() + ")...");
+        server.startServer(); // <---- THIS makes the server listen for clients
+
+        System.out.println("=== Home Guardian Server is now running ===");
+    }
+
+    /**
+     * Demo devices and users, used when there is no snapshot to restore.
+     */
+    private static void registerDefaults(HGController controller) {
         // ------------------------------
         // 2. Create and register devices
         // ------------------------------
@@ -56,16 +121,163 @@ public class HomeGuardianServerMain {
         guest.signup(controller);
 
         System.out.println("[SETUP] Users registered.");
+    }
 
-        // ------------------------------
-        // 4. Start the server (LISTEN)
-        // ------------------------------
-        int PORT = 12345;
-        Server server = new Server(PORT, controller);
+    private static HGController createController(LogRetention retention) {
+        HGController controller = new HGController();
+        controller.setLogRetention(retention);
+        return controller;
+    }
 
-        System.out.println("[SERVER] Starting server on port " + PORT + "...");
-        server.startServer(); // <---- THIS makes the server listen for clients
+    private static Path parseSnapshotDir(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--snapshot-dir=")) return Path.of(arg.substring(15));
+        }
+        return null;
+    }
 
-        System.out.println("=== Home Guardian Server is now running ===");
+    /**
+     * Load devices and users from the snapshot directory, decoding its shard
+     * files in parallel.
+     * @return false if there is no snapshot
+     * @throws IOException if the snapshot cannot be read
+     */
+    private static boolean restoreSnapshot(HGController controller, Path snapshotDir) throws IOException {
+        if (snapshotDir == null) return false;
+        long start = System.nanoTime();
+        int devices = ControllerSnapshot.load(controller, snapshotDir);
+        if (devices < 0) {
+            System.out.println("[SETUP] No snapshot in " + snapshotDir + ", using default setup.");
+            return false;
+        }
+        System.out.println("[SETUP] Restored " + devices + " devices and " + controller.getAllUsers().size()
+                + " users from " + snapshotDir + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return true;
+    }
+
+    /**
+     * Keep an unreadable snapshot out of the way of the next save.
+     * @return false if it could not be moved (the server must not start)
+     */
+    private static boolean moveSnapshotAside(Path snapshotDir) {
+        try {
+            Path moved = ControllerSnapshot.moveAside(snapshotDir);
+            System.out.println("[SETUP] Unreadable snapshot moved to " + moved + ", using default setup.");
+            return true;
+        } catch (IOException e) {
+            System.out.println("[SETUP] Cannot move the unreadable snapshot aside (" + e.getMessage()
+                    + "); not starting, so it is not overwritten.");
+            return false;
+        }
+    }
+
+    /**
+     * Save changed devices every 30 s and everything on shutdown.
+     */
+    private static void startSnapshots(HGController controller, Path snapshotDir) {
+        if (snapshotDir == null) return;
+        try {
+            ControllerSnapshot snapshot = new ControllerSnapshot(controller, snapshotDir);
+            snapshot.start(ControllerSnapshot.DEFAULT_PERIOD_MILLIS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    snapshot.close();
+                } catch (IOException ignore) {}
+            }, "hg-snapshot-close"));
+        } catch (IOException e) {
+            System.out.println("[SETUP] Snapshots disabled: " + e.getMessage());
+        }
+    }
+
+    /**
+     * With --log-dir=<path>, recover the on-disk activity log and persist
+     * new logs to it. New logs continue its sequence numbers. The buffer
+     * overwrites its oldest records, so logging never waits for the disk; if
+     * the persister falls a whole buffer behind, it logs how many it lost.
+     */
+    private static DurableActivityLog openDurableLog(String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--log-dir=")) continue;
+
+            try {
+                DurableActivityLog durableLog = DurableActivityLog.open(Path.of(arg.substring(10)));
+                ActivityLog.configureStore(ActivityLogBuffer.DEFAULT_CAPACITY,
+                        LogOverflowPolicy.OVERWRITE_OLDEST, durableLog.getLastSequence() + 1);
+                durableLog.follow(ActivityLog.getStore());
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        durableLog.close();
+                    } catch (IOException ignore) {}
+                }, "hg-log-close"));
+                System.out.println("[SETUP] Activity log stored in " + arg.substring(10)
+                        + " (" + durableLog.getLastSequence() + " logs recovered)");
+                return durableLog;
+            } catch (IOException e) {
+                System.out.println("[SETUP] Cannot open activity log directory: " + e.getMessage());
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Roll the activity log up into hourly per-device statistics, keeping
+     * raw logs for --raw-retention-days. Rollups are saved next to the
+     * durable log, if there is one.
+     */
+    private static LogRetention startRetention(String[] args, DurableActivityLog durableLog) {
+        long rawWindow = LogRetention.DEFAULT_RAW_WINDOW_MILLIS;
+        Path rollupFile = null;
+        Path archiveDirectory = null;
+        for (String arg : args) {
+            if (arg.startsWith("--raw-retention-days=")) {
+                try {
+                    rawWindow = TimeUnit.DAYS.toMillis(Long.parseLong(arg.substring(21)));
+                } catch (NumberFormatException e) {
+                    System.out.println("[SETUP] Invalid raw retention '" + arg.substring(21) + "', using 7 days.");
+                }
+            } else if (arg.startsWith("--log-dir=") && durableLog != null) {
+                rollupFile = Path.of(arg.substring(10), "rollups.hgr");
+                archiveDirectory = Path.of(arg.substring(10), "archive");
+            }
+        }
+
+        try {
+            LogRetention retention = new LogRetention(rawWindow,
+                    Math.max(rawWindow, LogRetention.DEFAULT_ROLLUP_WINDOW_MILLIS), durableLog,
+                    rollupFile, archiveDirectory);
+            retention.start(ActivityLog.getStore());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    retention.close();
+                } catch (IOException ignore) {}
+            }, "hg-retention-close"));
+            return retention;
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("[SETUP] Log retention disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the optional --mode=platform|virtual|nio argument.
+     */
+    private static ConnectionMode parseConnectionMode(String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--mode=")) continue;
+
+            switch (arg.substring(7).toLowerCase()) {
+                case "platform":
+                    return ConnectionMode.THREAD_PER_CLIENT;
+                case "virtual":
+                    return ConnectionMode.VIRTUAL_THREAD_PER_CLIENT;
+                case "nio":
+                    return ConnectionMode.NIO_SELECTOR;
+                default:
+                    System.out.println("[SETUP] Unknown mode '" + arg.substring(7)
+                            + "', using platform threads.");
+            }
+        }
+        return ConnectionMode.THREAD_PER_CLIENT;
     }
 }
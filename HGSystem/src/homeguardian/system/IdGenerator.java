@@ -0,0 +1,139 @@
+package homeguardian.system;
+
+/**
+ * Class: IdGenerator
+ *
+ * Description:
+ * Unique 64-bit IDs that sort by creation time, for notifications and
+ * activity logs. An ID is
+ *
+ *   1 bit   0 (IDs are positive)
+ *  41 bits  milliseconds since EPOCH_MILLIS (2020-01-01, good until 2089)
+ *  10 bits  node ID (homeguardian.node system property, default 0)
+ *  12 bits  sequence within the millisecond
+ *
+ * next() is lock-free and allocation-free: the last ID issued is kept in
+ * one AtomicLong and advanced with compareAndSet, so IDs from all threads
+ * are unique and increasing. More than 4096 IDs in one millisecond (or a
+ * clock stepping back) borrow from the following millisecond.
+ *
+ * The string form (toString, 13 Crockford base-32 characters) is built
+ * only when asked for and sorts in the same order as the numbers.
+ * timestampOf() and minIdAt() turn an ID range into a time range and back.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class IdGenerator {
+
+    public static final long EPOCH_MILLIS = 1_577_836_800_000L;    // 2020-01-01T00:00:00Z
+
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final int LOW_BITS = NODE_BITS + SEQUENCE_BITS;          // Below the timestamp
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final long LOW_MASK = (1L << LOW_BITS) - 1;
+
+    private static final int STRING_LENGTH = 13;
+    private static final char[] DIGITS = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    private static final IdGenerator DEFAULT = new IdGenerator(Integer.getInteger("homeguardian.node", 0));
+
+    private final long nodeBits;
+    private final AtomicLong last = new AtomicLong();
+
+    public IdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node ID must be between 0 and " + MAX_NODE_ID);
+        }
+        this.nodeBits = (long) nodeId << SEQUENCE_BITS;
+    }
+
+    /**
+     * The generator shared by notifications (node from -Dhomeguardian.node).
+     */
+    public static IdGenerator getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * A new ID, greater than every ID this generator issued before.
+     */
+    public long next() {
+        while (true) {
+            long prev = last.get();
+            long id = (Math.max(0, System.currentTimeMillis() - EPOCH_MILLIS) << LOW_BITS) | nodeBits;
+            if (id <= prev) {
+                // Same millisecond: next sequence, or the next millisecond once it is used up
+                id = (prev & SEQUENCE_MASK) == SEQUENCE_MASK
+                        ? (((prev >>> LOW_BITS) + 1) << LOW_BITS) | nodeBits
+                        : prev + 1;
+            }
+            if (last.compareAndSet(prev, id)) return id;
+        }
+    }
+
+    // ---- ID ARITHMETIC ----
+
+    /**
+     * Epoch milliseconds at which the ID was issued.
+     */
+    public static long timestampOf(long id) {
+        return (id >>> LOW_BITS) + EPOCH_MILLIS;
+    }
+
+    /**
+     * Smallest ID that can be issued at the given time, so IDs in
+     * [minIdAt(from), minIdAt(to)) are those issued in [from, to).
+     */
+    public static long minIdAt(long epochMillis) {
+        return Math.max(0, epochMillis - EPOCH_MILLIS) << LOW_BITS;
+    }
+
+    /**
+     * An ID in the same layout for a record that already has a unique
+     * counter, e.g. an activity log's store sequence: the counter's low 22
+     * bits take the place of node and sequence.
+     */
+    static long pack(long epochMillis, long counter) {
+        return minIdAt(epochMillis) | (counter & LOW_MASK);
+    }
+
+    // ---- STRING FORM ----
+
+    public static String toString(long id) {
+        char[] text = new char[STRING_LENGTH];
+        for (int i = STRING_LENGTH - 1; i >= 0; i--) {
+            text[i] = DIGITS[(int) (id & 31)];
+            id >>>= 5;
+        }
+        return new String(text);
+    }
+
+    /**
+     * The ID of a string produced by toString().
+     * @throws IllegalArgumentException if it is not one
+     */
+    public static long parse(String text) {
+        if (text == null || text.length() != STRING_LENGTH) {
+            throw new IllegalArgumentException("Invalid ID: " + text);
+        }
+        long id = 0;
+        for (int i = 0; i < STRING_LENGTH; i++) {
+            int digit = digitOf(text.charAt(i));
+            if (digit < 0 || (i == 0 && digit > 15)) {
+                throw new IllegalArgumentException("Invalid ID: " + text);
+            }
+            id = (id << 5) | digit;
+        }
+        return id;
+    }
+
+    private static int digitOf(char c) {
+        for (int d = 0; d < DIGITS.length; d++) {
+            if (DIGITS[d] == Character.toUpperCase(c)) return d;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,113 @@
+package homeguardian.system;
+
+/**
+ * Class: Log
+ *
+ * Description:
+ * Entry point for console/diagnostic logging (the stored activity history
+ * is ActivityLog). Messages below their category's level are discarded
+ * before anything is allocated; the rest are queued on an AsyncLogAppender,
+ * so the calling thread never waits for the console.
+ *
+ *   Log.info(LogCategory.DEVICE, "Front light turned ON");
+ *   if (Log.isEnabled(LogCategory.DEVICE, LogLevel.DEBUG)) { ... }
+ *
+ * The default sink is a ConsoleLogSink at level INFO for every category.
+ * Queued messages are written out at JVM shutdown.
+ */
+
+import java.util.Arrays;
+
+public final class Log {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1 << 16;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private static volatile LogLevel[] levels = defaultLevels();
+    private static volatile AsyncLogAppender appender =
+            new AsyncLogAppender(new ConsoleLogSink(), DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE);
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::shutdown, "hg-log-shutdown"));
+    }
+
+    private Log() {}
+
+    // ---- CONFIGURATION ----
+
+    /**
+     * Replace the sink. Messages already queued go to the previous sink.
+     * NoOpLogSink disables output (and queueing) entirely.
+     */
+    public static synchronized void setSink(LogSink sink) {
+        AsyncLogAppender previous = appender;
+        appender = sink == NoOpLogSink.INSTANCE
+                ? null
+                : new AsyncLogAppender(sink, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    public static synchronized void setLevel(LogCategory category, LogLevel level) {
+        LogLevel[] updated = Arrays.copyOf(levels, levels.length);
+        updated[category.ordinal()] = level;
+        levels = updated;
+    }
+
+    public static LogLevel getLevel(LogCategory category) {
+        return levels[category.ordinal()];
+    }
+
+    public static boolean isEnabled(LogCategory category, LogLevel level) {
+        return level.compareTo(levels[category.ordinal()]) >= 0 && level != LogLevel.OFF;
+    }
+
+    // ---- LOGGING ----
+
+    public static void log(LogCategory category, LogLevel level, String message) {
+        if (!isEnabled(category, level)) return;
+        AsyncLogAppender target = appender;
+        if (target != null) {
+            target.append(new LogEvent(category, level, System.currentTimeMillis(), message));
+        }
+    }
+
+    public static void debug(LogCategory category, String message) { log(category, LogLevel.DEBUG, message); }
+    public static void info(LogCategory category, String message) { log(category, LogLevel.INFO, message); }
+    public static void warn(LogCategory category, String message) { log(category, LogLevel.WARN, message); }
+    public static void error(LogCategory category, String message) { log(category, LogLevel.ERROR, message); }
+
+    /**
+     * Wait until every message logged so far has reached the sink.
+     */
+    public static void flush() {
+        AsyncLogAppender target = appender;
+        if (target != null) target.flush();
+    }
+
+    /**
+     * Messages dropped because the queue was full.
+     */
+    public static long getDroppedCount() {
+        AsyncLogAppender target = appender;
+        return target == null ? 0 : target.getDroppedCount();
+    }
+
+    /**
+     * Write out queued messages and stop the background thread.
+     */
+    public static synchronized void shutdown() {
+        AsyncLogAppender previous = appender;
+        appender = null;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    private static LogLevel[] defaultLevels() {
+        LogLevel[] defaults = new LogLevel[LogCategory.values().length];
+        Arrays.fill(defaults, LogLevel.INFO);
+        return defaults;
+    }
+}
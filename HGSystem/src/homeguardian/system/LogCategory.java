@@ -0,0 +1,15 @@
+package homeguardian.system;
+
+/**
+ * Class: LogCategory
+ *
+ * Description:
+ * Area of the system a log message comes from. Each category has its own
+ * level threshold (Log.setLevel).
+ */
+public enum LogCategory {
+    DEVICE,
+    USER,
+    SYSTEM,
+    NOTIFICATION
+}
@@ -0,0 +1,27 @@
+package homeguardian.system;
+
+/**
+ * Class: LogEvent
+ *
+ * Description:
+ * One message handed to a LogSink: category, level, time and text.
+ */
+public class LogEvent {
+
+    private final LogCategory category;
+    private final LogLevel level;
+    private final long timestamp;     // Milliseconds
+    private final String message;
+
+    public LogEvent(LogCategory category, LogLevel level, long timestamp, String message) {
+        this.category = category;
+        this.level = level;
+        this.timestamp = timestamp;
+        this.message = message;
+    }
+
+    public LogCategory getCategory() { return category; }
+    public LogLevel getLevel() { return level; }
+    public long getTimestamp() { return timestamp; }
+    public String getMessage() { return message; }
+}
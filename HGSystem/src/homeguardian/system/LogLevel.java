@@ -0,0 +1,15 @@
+package homeguardian.system;
+
+/**
+ * Class: LogLevel
+ *
+ * Description:
+ * Severity of a log message, lowest first. A category set to OFF logs nothing.
+ */
+public enum LogLevel {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    OFF
+}
@@ -0,0 +1,15 @@
+package homeguardian.system;
+
+/**
+ * Class: LogOverflowPolicy
+ *
+ * Description:
+ * What an ActivityLogBuffer does when a new record would need a slot that
+ * still holds a record.
+ */
+public enum LogOverflowPolicy {
+    /** Reuse the slot; the oldest record is lost (keeps the most recent history) */
+    OVERWRITE_OLDEST,
+    /** Refuse the new record until the old one is released (never loses unreleased history) */
+    DROP_NEWEST
+}
@@ -0,0 +1,39 @@
+package homeguardian.system;
+
+/**
+ * Class: LogPage
+ *
+ * Description:
+ * One page of activity logs returned for a log query ("LOGS").
+ *
+ *  - logs: matching logs after the requested sequence, oldest first
+ *  - nextSequence: pass this as "after" for the next page; when hasMore is
+ *    false it also picks up logs created after this query
+ *  - hasMore: more matching logs are waiting beyond nextSequence
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LogPage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long afterSequence;
+    private final long nextSequence;
+    private final boolean hasMore;
+    private final ArrayList<ActivityLog> logs;
+
+    public LogPage(long afterSequence, long nextSequence, boolean hasMore, List<ActivityLog> logs) {
+        this.afterSequence = afterSequence;
+        this.nextSequence = nextSequence;
+        this.hasMore = hasMore;
+        this.logs = new ArrayList<>(logs);
+    }
+
+    public long getAfterSequence() { return afterSequence; }
+    public long getNextSequence() { return nextSequence; }
+    public boolean hasMore() { return hasMore; }
+    public List<ActivityLog> getLogs() { return logs; }
+}
@@ -0,0 +1,298 @@
+package homeguardian.system;
+
+/**
+ * Class: LogRetention
+ *
+ * Description:
+ * Retention tiers for the activity history:
+ *
+ *  - raw:     individual ActivityLog records, kept in the log store and,
+ *             with a DurableActivityLog, on disk for rawWindowMillis
+ *  - archive: with an archive directory, durable segments past the raw
+ *             window become compressed ActivityLogArchive files, kept
+ *             like the rollups
+ *  - rollups: one DeviceRollup per device and hour, kept for
+ *             rollupWindowMillis (default: a year)
+ *
+ * A background thread ("hg-log-retention") follows the log store with its
+ * own cursor and adds each record to its device's rollup for that hour, a
+ * batch at a time. Producers never wait for it: they only write the log
+ * store. With OVERWRITE_OLDEST, records overwritten before the thread
+ * reaches them are missing from the rollups; each such gap is counted
+ * (getMissedCount()) and logged with the time it ended at. About once a
+ * minute it archives and deletes durable segments older than the raw
+ * window, deletes archives older than the rollup window and, when a rollup
+ * file is configured, saves the rollups (write then rename).
+ *
+ * Statistics queries (getRollups, summarize) read only the rollups, so a
+ * period whose raw records are gone is answered the same way as the
+ * current hour. They have hour resolution and first fold in whatever the
+ * thread has not yet processed. Individual recent records are read with
+ * ActivityLog.query().
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class LogRetention implements Closeable {
+
+    public static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    public static final long DEFAULT_RAW_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(7);
+    public static final long DEFAULT_ROLLUP_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(366);
+
+    private static final int BATCH_SIZE = 4096;      // Records folded per lock hold
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long MAINTENANCE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int FILE_MAGIC = 0x48475231;  // "HGR1"
+
+    // ---- CONFIGURATION ----
+    private final long rawWindowMillis;
+    private final long rollupWindowMillis;
+    private final DurableActivityLog durableLog;     // Null: raw records only in memory
+    private final Path rollupFile;                   // Null: rollups are not saved
+    private final Path archiveDirectory;             // Null: old segments are deleted, not archived
+
+    // ---- ROLLUPS (guarded by this) ----
+    private final NavigableMap<Long, Map<String, DeviceRollup>> hours = new TreeMap<>(); // Hour start -> by device
+    private ActivityLogCursor cursor;
+    private long missedCount;                        // Records skipped by the cursor, not in any rollup
+    private long lastMaintenance;
+
+    // ---- BACKGROUND THREAD ----
+    private Thread worker;
+    private volatile boolean running;
+
+    /**
+     * @param durableLog raw segments to prune, or null
+     * @param rollupFile where rollups are saved and loaded from, or null
+     * @param archiveDirectory where old segments are archived, or null
+     */
+    public LogRetention(long rawWindowMillis, long rollupWindowMillis, DurableActivityLog durableLog,
+                        Path rollupFile, Path archiveDirectory) throws IOException {
+        if (rawWindowMillis < HOUR_MILLIS || rollupWindowMillis < rawWindowMillis) {
+            throw new IllegalArgumentException("Invalid retention windows");
+        }
+        this.rawWindowMillis = rawWindowMillis;
+        this.rollupWindowMillis = rollupWindowMillis;
+        this.durableLog = durableLog;
+        this.rollupFile = rollupFile;
+        this.archiveDirectory = archiveDirectory;
+        if (rollupFile != null) load();
+    }
+
+    /**
+     * Start rolling up the records of the given log store as they arrive.
+     */
+    public synchronized void start(ActivityLogBuffer buffer) {
+        if (worker != null) {
+            throw new IllegalStateException("Retention already started");
+        }
+        cursor = buffer.cursor();
+        running = true;
+        worker = new Thread(this::run, "hg-log-retention");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void run() {
+        while (running) {
+            int folded = rollUp(BATCH_SIZE);
+            if (System.currentTimeMillis() - lastMaintenance >= MAINTENANCE_INTERVAL_MILLIS) {
+                maintain();
+            }
+            if (folded < BATCH_SIZE) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    // ---- AGGREGATION ----
+
+    /**
+     * Fold up to max new records into their hourly rollups.
+     * @return number of records folded
+     */
+    private synchronized int rollUp(int max) {
+        if (cursor == null) return 0;
+        int folded = 0;
+        ActivityLog record;
+        while (folded < max && (record = cursor.poll()) != null) {
+            folded++;
+            if (cursor.getMissedCount() != missedCount) {
+                Log.warn(LogCategory.SYSTEM, "Log rollups incomplete: " + (cursor.getMissedCount() - missedCount)
+                        + " records overwritten before sequence " + record.getSequence() + " ("
+                        + Instant.ofEpochMilli(record.getTimestamp()) + ")");
+                missedCount = cursor.getMissedCount();
+            }
+            String deviceID = record.getDeviceID();
+            if (deviceID == null || deviceID.equals("N/A")) continue; // Not about a device
+
+            long hour = record.getTimestamp() - Math.floorMod(record.getTimestamp(), HOUR_MILLIS);
+            hours.computeIfAbsent(hour, k -> new HashMap<>())
+                 .computeIfAbsent(deviceID, id -> new DeviceRollup(id, hour, hour + HOUR_MILLIS))
+                 .add(record);
+        }
+        return folded;
+    }
+
+    /**
+     * Drop expired rollups and raw segments, then save the rollups.
+     */
+    private void maintain() {
+        long now = System.currentTimeMillis();
+        lastMaintenance = now;
+        synchronized (this) {
+            hours.headMap(now - rollupWindowMillis).clear();
+        }
+        try {
+            if (durableLog != null) durableLog.deleteSegmentsBefore(now - rawWindowMillis, archiveDirectory);
+            if (archiveDirectory != null) deleteArchivesBefore(now - rollupWindowMillis);
+            if (rollupFile != null) save();
+        } catch (IOException e) {
+            Log.error(LogCategory.SYSTEM, "Log retention failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Delete archives, oldest first, whose newest record is before cutoff.
+     */
+    private void deleteArchivesBefore(long cutoffMillis) throws IOException {
+        if (!Files.isDirectory(archiveDirectory)) return;
+        TreeSet<Path> archives = new TreeSet<>();  // Named by first sequence, so sorted oldest first
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(archiveDirectory, "*" + ActivityLogArchive.SUFFIX)) {
+            for (Path file : files) archives.add(file);
+        }
+        for (Path file : archives) {
+            long newest;
+            try (ActivityLogArchive archive = ActivityLogArchive.open(file)) {
+                newest = archive.getMaxTimestamp();
+            }
+            if (newest >= cutoffMillis) break;
+            Files.delete(file);
+        }
+    }
+
+    // ---- QUERIES ----
+
+    /**
+     * Hourly rollups of a device (null for every device) overlapping
+     * [fromTime, toTime], oldest first.
+     */
+    public List<DeviceRollup> getRollups(String deviceID, long fromTime, long toTime) {
+        List<DeviceRollup> result = new ArrayList<>();
+        synchronized (this) {
+            while (rollUp(BATCH_SIZE) == BATCH_SIZE) {
+                // Catch up with records the thread has not reached yet
+            }
+            long fromHour = fromTime - Math.floorMod(fromTime, HOUR_MILLIS);
+            for (Map<String, DeviceRollup> hour : hours.subMap(fromHour, true, toTime, true).values()) {
+                if (deviceID == null) {
+                    for (DeviceRollup rollup : hour.values()) result.add(rollup.copy());
+                } else {
+                    DeviceRollup rollup = hour.get(deviceID);
+                    if (rollup != null) result.add(rollup.copy());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * One device's counts over [fromTime, toTime], widened to whole hours.
+     */
+    public DeviceRollup summarize(String deviceID, long fromTime, long toTime) {
+        long fromHour = fromTime - Math.floorMod(fromTime, HOUR_MILLIS);
+        DeviceRollup total = new DeviceRollup(deviceID, fromHour, fromHour);
+        for (DeviceRollup rollup : getRollups(deviceID, fromTime, toTime)) {
+            total.merge(rollup);
+        }
+        return total;
+    }
+
+    public long getRawWindowMillis() {
+        return rawWindowMillis;
+    }
+
+    /** Records the rollups are missing because they were overwritten before being folded */
+    public synchronized long getMissedCount() {
+        return missedCount;
+    }
+
+    public synchronized int getHourCount() {
+        return hours.size();
+    }
+
+    // ---- STORAGE ----
+
+    private void save() throws IOException {
+        List<DeviceRollup> all = new ArrayList<>();
+        synchronized (this) {
+            for (Map<String, DeviceRollup> hour : hours.values()) {
+                for (DeviceRollup rollup : hour.values()) all.add(rollup.copy());
+            }
+        }
+        Path temp = rollupFile.resolveSibling(rollupFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(all.size());
+            for (DeviceRollup rollup : all) rollup.writeTo(out);
+        }
+        Files.move(temp, rollupFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(rollupFile)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a rollup file: " + rollupFile);
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                DeviceRollup rollup = DeviceRollup.readFrom(in);
+                hours.computeIfAbsent(rollup.getFromTime(), k -> new HashMap<>()).put(rollup.getDeviceID(), rollup);
+            }
+        } catch (NoSuchFileException e) {
+            // First start
+        }
+    }
+
+    /**
+     * Stop the thread after folding what is left, then save the rollups.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = worker;
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        while (rollUp(BATCH_SIZE) == BATCH_SIZE) {
+            // Drain
+        }
+        if (rollupFile != null) save();
+    }
+}
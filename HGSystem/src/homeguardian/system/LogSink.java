@@ -0,0 +1,23 @@
+package homeguardian.system;
+
+/**
+ * Class: LogSink
+ *
+ * Description:
+ * Destination for log messages. Sinks receive messages in batches; the
+ * AsyncLogAppender calls write() from its background thread only, so a
+ * sink does not need to be thread-safe when used behind it.
+ */
+
+import java.util.List;
+
+public interface LogSink {
+
+    void write(List<LogEvent> batch);
+
+    /** Push buffered output to its destination */
+    default void flush() {}
+
+    /** Release resources; no writes follow */
+    default void close() {}
+}
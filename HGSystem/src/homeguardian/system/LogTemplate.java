@@ -0,0 +1,93 @@
+package homeguardian.system;
+
+/**
+ * Class: LogTemplate
+ *
+ * Description:
+ * Message patterns for ActivityLog records. A record stores its template
+ * and up to two arguments ({0}, {1}); the text is only built when a reader
+ * calls getMessage(). TEXT is a pre-built message passed as {0}.
+ */
+public enum LogTemplate {
+    TEXT("{0}"),
+    DEVICE_ADDED("New device added: {0} ({1})"),
+    DEVICE_REMOVED("Device removed: {0} ({1})"),
+    DEVICE_NOT_FOUND("Device with ID {0} can't be found."),
+    DEVICE_NOT_FOUND_FOR_REMOVAL("Device with ID {0} not found for removal."),
+    COMMAND_EXECUTED("Command '{0}' executed on device {1}"),
+    COMMAND_FAILED("Failed to execute command '{0}' on device {1}"),
+    DEVICE_EVENT("[Device: {0}] Event: {1}"),   // Before DEVICE_LOG, which also matches its text
+    DEVICE_LOG("[Device: {0}] {1}"),
+    EMERGENCY_NOTIFIED("Emergency services notified: {0}");
+
+    private final String pattern;
+    private final String[] literals;   // Text before each argument, then the tail
+    private final int[] arguments;     // Argument index after each literal
+
+    LogTemplate(String pattern) {
+        this.pattern = pattern;
+        int count = 0;
+        for (int i = pattern.indexOf('{'); i >= 0; i = pattern.indexOf('{', i + 1)) count++;
+        literals = new String[count + 1];
+        arguments = new int[count];
+        int start = 0;
+        for (int n = 0; n < count; n++) {
+            int open = pattern.indexOf('{', start);
+            literals[n] = pattern.substring(start, open);
+            arguments[n] = pattern.charAt(open + 1) - '0';
+            start = open + 3;
+        }
+        literals[count] = pattern.substring(start);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Recover the template and arguments of a rendered message, e.g. one
+     * read back from a DurableActivityLog. Only accepted if rendering the
+     * result gives the same text; otherwise the message is TEXT.
+     * Templates are tried in declaration order.
+     * @param args receives {0} and {1}
+     */
+    public static LogTemplate parse(String text, String[] args) {
+        for (LogTemplate template : values()) {
+            if (template != TEXT && template.match(text, args)
+                    && text.equals(template.render(args[0], args[1]))) {
+                return template;
+            }
+        }
+        args[0] = text;
+        args[1] = null;
+        return TEXT;
+    }
+
+    private boolean match(String text, String[] args) {
+        if (!text.startsWith(literals[0]) || !text.endsWith(literals[arguments.length])) return false;
+        args[0] = null;
+        args[1] = null;
+        int pos = literals[0].length();
+        int tailStart = text.length() - literals[arguments.length].length();
+        if (tailStart < pos) return false;
+        for (int n = 0; n < arguments.length; n++) {
+            int end = n + 1 < arguments.length ? text.indexOf(literals[n + 1], pos) : tailStart;
+            if (end < pos) return false;
+            args[arguments[n]] = text.substring(pos, end);
+            pos = end + literals[n + 1].length();
+        }
+        return true;
+    }
+
+    /**
+     * The message with {0} and {1} replaced by the arguments.
+     */
+    public String render(String arg0, String arg1) {
+        if (this == TEXT) return arg0;
+        StringBuilder text = new StringBuilder(pattern.length() + 32);
+        for (int n = 0; n < arguments.length; n++) {
+            text.append(literals[n]).append(arguments[n] == 0 ? arg0 : arg1);
+        }
+        return text.append(literals[arguments.length]).toString();
+    }
+}
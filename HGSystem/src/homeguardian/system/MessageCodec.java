@@ -0,0 +1,34 @@
+package homeguardian.system;
+
+/**
+ * Class: MessageCodec
+ *
+ * Description:
+ * Converts messages exchanged with a client to and from frame bodies.
+ * Framing itself ([int length][body]) is done by ConnectionToClient; a codec
+ * only sees the body bytes of a single message.
+ *
+ * The codec is chosen per connection when it starts (see ConnectionToClient):
+ *  - SerializationCodec: Java serialization, one object per frame (legacy)
+ *  - BinaryCodec: compact opcode/device/args/request-id frames
+ */
+
+import java.io.IOException;
+
+public interface MessageCodec {
+
+    /**
+     * Short name used in logs and diagnostics.
+     */
+    String getName();
+
+    /**
+     * Encode one message into a frame body.
+     */
+    byte[] encode(Object msg) throws IOException;
+
+    /**
+     * Decode one frame body back into a message.
+     */
+    Object decode(byte[] data, int offset, int length) throws IOException;
+}
@@ -2,22 +2,28 @@ package homeguardian.system;
 
 
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 
 
 public class MotionSensor extends Device{
 
+    private static final long serialVersionUID = 1L;
+
 	
 	// -------------------------
     // ATTRIBUTES
     // -------------------------
     private boolean isEnabled;
-    private final List<String> linkedAlarms;
-    private final List<String> linkedLights;
-    private final List<String> linkedCameras;
+    private final ArrayList<String> linkedAlarms;
+    private final ArrayList<String> linkedLights;
+    private final ArrayList<String> linkedCameras;
     private LocalDateTime lastDetection;
 
     // Extra helpful attribute for adjustSensitivity(level:int)
@@ -123,6 +129,7 @@ public class MotionSensor extends Device{
         String timestamp = getLastDetectionFormatted();
         notifyEvents("Motion detected at " + timestamp);
         addLog("Motion detected at " + timestamp);
+        raiseAlert(AlertType.MOTION_DETECTED, "Motion detected by " + getDeviceName() + " at " + timestamp);
 
         // Later: ServerController can use linkedAlarms / linkedLights / linkedCameras
         // to trigger responses (alarm, lights, recording, etc.).
@@ -163,5 +170,34 @@ public class MotionSensor extends Device{
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
         return lastDetection.format(formatter);
     }
-	
+
+    // -------------------------
+    // SNAPSHOT (ControllerSnapshot)
+    // -------------------------
+    MotionSensor(DataInputStream in) throws IOException {
+        super(in);
+        this.isEnabled = in.readBoolean();
+        this.linkedAlarms = ControllerSnapshot.readStrings(in);
+        this.linkedLights = ControllerSnapshot.readStrings(in);
+        this.linkedCameras = ControllerSnapshot.readStrings(in);
+        this.lastDetection = ControllerSnapshot.readDateTime(in);
+        this.sensitivityLevel = in.readInt();
+    }
+
+    @Override
+    void writeState(DataOutputStream out) throws IOException {
+        super.writeState(out);
+        out.writeBoolean(isEnabled);
+        ControllerSnapshot.writeStrings(out, linkedAlarms);
+        ControllerSnapshot.writeStrings(out, linkedLights);
+        ControllerSnapshot.writeStrings(out, linkedCameras);
+        ControllerSnapshot.writeDateTime(out, lastDetection);
+        out.writeInt(sensitivityLevel);
+    }
+
+    @Override
+    protected void addStateFlags(EnumSet<DeviceFlag> flags) {
+        super.addStateFlags(flags);
+        flags.add(isEnabled ? DeviceFlag.ENABLED : DeviceFlag.DISABLED);
+    }
 }
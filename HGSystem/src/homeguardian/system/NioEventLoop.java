@@ -0,0 +1,135 @@
+package homeguardian.system;
+
+/**
+ * Class: NioEventLoop
+ *
+ * Description:
+ * A single selector thread used by AbstractServer in NIO_SELECTOR mode.
+ * Each loop owns one Selector and services every channel registered with it:
+ * accepting new sockets (first loop only), reading and decoding frames, and
+ * flushing queued outbound frames. Work coming from other threads (new
+ * registrations, write requests) is handed over through a task queue so that
+ * the Selector is only ever touched by its own thread.
+ */
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+class NioEventLoop implements Runnable {
+
+    // ---- LOOP PROPERTIES ----
+    private final AbstractServer server;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    NioEventLoop(AbstractServer server, String name) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Run a task on this loop's thread. Runs immediately when already on it.
+     */
+    void execute(Runnable task) {
+        if (inEventLoop()) {
+            task.run();
+            return;
+        }
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Register a channel with this loop's selector.
+     * @param attachment Object handed back on every ready event (a ConnectionToClient,
+     *                   or the server itself for the accepting channel)
+     */
+    void register(SelectableChannel channel, int ops, Object attachment) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, ops, attachment);
+                if (attachment instanceof ConnectionToClient client) {
+                    client.attachKey(key);
+                }
+            } catch (IOException e) {
+                if (attachment instanceof ConnectionToClient client) {
+                    client.closeWithException(e);
+                } else {
+                    server.listeningException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop the loop and release its selector.
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    // ---- MAIN LOOP ----
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                runTasks();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    processKey(key);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) server.listeningException(e);
+        } finally {
+            try { selector.close(); } catch (IOException ignore) {}
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void processKey(SelectionKey key) {
+        if (!key.isValid()) return;
+
+        if (key.isAcceptable()) {
+            server.acceptNonBlocking();
+            return;
+        }
+
+        ConnectionToClient client = (ConnectionToClient) key.attachment();
+        if (key.isReadable()) {
+            client.handleReadable();
+        }
+        if (key.isValid() && key.isWritable()) {
+            client.handleWritable();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package homeguardian.system;
+
+/**
+ * Class: NoOpLogSink
+ *
+ * Description:
+ * Discards every message. Install with Log.setSink(NoOpLogSink.INSTANCE)
+ * for benchmarks; Log then skips even the enqueue.
+ */
+
+import java.util.List;
+
+public final class NoOpLogSink implements LogSink {
+
+    public static final NoOpLogSink INSTANCE = new NoOpLogSink();
+
+    private NoOpLogSink() {}
+
+    @Override
+    public void write(List<LogEvent> batch) {}
+}
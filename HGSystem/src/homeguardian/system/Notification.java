@@ -3,7 +3,6 @@ package homeguardian.system;
 import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.UUID;
 
 /**
  * Name: Nosizo Mabuza
@@ -21,24 +20,33 @@ import java.util.UUID;
  *  - whether notifications are enabled
  *  - unique notification ID
  *
+ * Notifications are sent to clients (INBOX), so only the recipient's
+ * userID travels; the User itself stays on the server.
+ *
  * --ATTRIBUTES (Design Document)
- * notificationID: String
+ * notificationID: long (IdGenerator, time-sortable; string form built on demand)
  * userID: String
  * timeStamp: LocalDateTime
  * isEnabled: boolean
  * userEmail: String
  * recipient: User
  * message: String
+ * priority: NotificationPriority
+ * isRead: boolean
+ * occurrences, firstOccurrence, lastOccurrence: repeats merged by NotificationCoalescer
  *
  * --METHODS
  * Notification(recipient, message, isEnabled, userEmail)
  * Notification(recipient, message)
+ * Notification(recipient, message, priority)
  * isEnabled()
  * sendAlert()
  * getEmail()
  * setEmail()
  * getRecipient()
  * getMessage()
+ * isRead()
+ * getOccurrences()
  */
 
 public class Notification implements Serializable {
@@ -48,15 +56,20 @@ public class Notification implements Serializable {
     // -------------------------
     // ATTRIBUTES
     // -------------------------
-    private final String notificationID;
+    private final long notificationID;
     private final String userID;
     private final LocalDateTime timeStamp;
 
     private boolean isEnabled;
     private String userEmail;
 
-    private final User recipient;   // Can be null (SYSTEM/global alert)
+    private final transient User recipient;   // Null for a SYSTEM/global alert, and on a client copy
     private final String message;
+    private final NotificationPriority priority;
+    private volatile boolean isRead;    // Set through the recipient's NotificationInbox
+    private int occurrences = 1;        // > 1 when repeated alerts were merged into this one
+    private LocalDateTime firstOccurrence;
+    private LocalDateTime lastOccurrence;
 
     // -------------------------
     // FULL CONSTRUCTOR
@@ -65,11 +78,19 @@ public class Notification implements Serializable {
      * Full constructor (design-specified)
      */
     public Notification(User recipient, String message, boolean isEnabled, String userEmail) {
+        this(recipient, message, isEnabled, userEmail, NotificationPriority.INFO);
+    }
+
+    public Notification(User recipient, String message, boolean isEnabled, String userEmail,
+                        NotificationPriority priority) {
         this.recipient = recipient;
         this.message = message;
+        this.priority = priority;
 
-        this.notificationID = UUID.randomUUID().toString();
+        this.notificationID = IdGenerator.getDefault().next();
         this.timeStamp = LocalDateTime.now();
+        this.firstOccurrence = timeStamp;
+        this.lastOccurrence = timeStamp;
         this.isEnabled = isEnabled;
         this.userEmail = userEmail;
 
@@ -84,7 +105,14 @@ public class Notification implements Serializable {
      * Simple constructor used by controller (enabled + placeholder email)
      */
     public Notification(User recipient, String message) {
-        this(recipient, message, true, "unknown@example.com");
+        this(recipient, message, NotificationPriority.INFO);
+    }
+
+    /**
+     * Convenience constructor with a delivery priority (see NotificationDispatcher)
+     */
+    public Notification(User recipient, String message, NotificationPriority priority) {
+        this(recipient, message, true, recipient != null ? recipient.getEmail() : "unknown@example.com", priority);
     }
 
     // -------------------------
@@ -102,19 +130,24 @@ public class Notification implements Serializable {
      */
     public boolean sendAlert() {
         if (!isEnabled) {
-            System.out.println("[" + getTimestampFormatted() + "] ALERT DISABLED for User "
+            Log.info(LogCategory.NOTIFICATION, "[" + getTimestampFormatted() + "] ALERT DISABLED for User "
                     + userID + ": " + message);
             return false;
         }
 
-        String recipientInfo = (recipient != null) ? recipient.getName() : "System/Global";
+        String recipientInfo = (recipient != null) ? recipient.getName()
+                : "SYSTEM".equals(userID) ? "System/Global" : userID;
 
-        System.out.println("--- ALERT SENT ---");
-        System.out.println("ID: " + notificationID);
-        System.out.println("To: " + recipientInfo + " | Email: " + userEmail);
-        System.out.println("Time: " + getTimestampFormatted());
-        System.out.println("Message: " + message);
-        System.out.println("------------------");
+        // One log message, so the block is never interleaved with other output
+        String nl = System.lineSeparator();
+        Log.info(LogCategory.NOTIFICATION, "--- ALERT SENT ---" + nl
+                + "ID: " + getNotificationID() + nl
+                + "To: " + recipientInfo + " | Email: " + userEmail + nl
+                + "Time: " + getTimestampFormatted() + nl
+                + "Message: " + message + nl
+                + (occurrences > 1 ? "Repeated: " + occurrences + " times, " + format(firstOccurrence)
+                        + " to " + format(lastOccurrence) + nl : "")
+                + "------------------");
 
         return true;
     }
@@ -128,7 +161,7 @@ public class Notification implements Serializable {
     public void setEmail(String email) {
         if (email != null && !email.trim().isEmpty()) {
             this.userEmail = email;
-            System.out.println("Notification email updated to: " + email);
+            Log.info(LogCategory.NOTIFICATION, "Notification email updated to: " + email);
         }
     }
 
@@ -137,6 +170,11 @@ public class Notification implements Serializable {
     // -------------------------
 
     public String getNotificationID() {
+        return IdGenerator.toString(notificationID);
+    }
+
+    /** The notification ID as a number; later notifications have larger IDs */
+    public long getId() {
         return notificationID;
     }
 
@@ -149,10 +187,15 @@ public class Notification implements Serializable {
     }
 
     public String getTimestampFormatted() {
+        return format(timeStamp);
+    }
+
+    private static String format(LocalDateTime time) {
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        return timeStamp.format(formatter);
+        return time.format(formatter);
     }
 
+    /** The recipient on the server; null for a SYSTEM alert or a copy received by a client (use getUserID()) */
     public User getRecipient() {
         return recipient;
     }
@@ -160,4 +203,35 @@ public class Notification implements Serializable {
     public String getMessage() {
         return message;
     }
+
+    public NotificationPriority getPriority() {
+        return priority;
+    }
+
+    public boolean isRead() {
+        return isRead;
+    }
+
+    void setRead(boolean isRead) {
+        this.isRead = isRead;
+    }
+
+    /** Number of alerts this notification stands for (1 unless merged) */
+    public int getOccurrences() {
+        return occurrences;
+    }
+
+    public LocalDateTime getFirstOccurrence() {
+        return firstOccurrence;
+    }
+
+    public LocalDateTime getLastOccurrence() {
+        return lastOccurrence;
+    }
+
+    void setOccurrences(int occurrences, LocalDateTime first, LocalDateTime last) {
+        this.occurrences = occurrences;
+        this.firstOccurrence = first;
+        this.lastOccurrence = last;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package homeguardian.system;
+
+/**
+ * Class: NotificationChannel
+ *
+ * Description:
+ * A way of delivering a Notification (console, email, push, ...). The
+ * NotificationDispatcher delivers each notification on every channel
+ * separately and retries a channel that throws.
+ */
+
+import java.io.IOException;
+
+public interface NotificationChannel {
+
+    String getName();
+
+    /**
+     * Deliver one notification.
+     * @throws IOException if delivery failed and should be retried
+     */
+    void deliver(Notification notification) throws IOException;
+}
@@ -0,0 +1,176 @@
+package homeguardian.system;
+
+/**
+ * Class: NotificationCoalescer
+ *
+ * Description:
+ * Merges repeated alerts so a flapping sensor or a burst of bad passcodes
+ * does not become hundreds of notifications. Alerts are keyed by
+ * (recipient, device, alert type):
+ *
+ *  - The first alert of a key is sent at once and opens a window.
+ *  - Repeats within `windowMillis` of the previous one are only counted
+ *    (sliding window).
+ *  - When the key has been quiet for `windowMillis`, or the window has
+ *    been open for `maxSpanMillis`, the repeats are sent as one
+ *    notification carrying their count and first/last times.
+ *  - EMERGENCY alerts are never held back or merged.
+ *
+ * Windows are closed by a sweeper thread ("hg-notify-coalesce").
+ */
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+public class NotificationCoalescer {
+
+    public static final long DEFAULT_WINDOW_MILLIS = 60_000;
+    public static final long DEFAULT_MAX_SPAN_MILLIS = 15 * 60_000;
+
+    private final long windowMillis;
+    private final long maxSpanMillis;
+    private final Consumer<Notification> sink;
+    private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+    private final AtomicLong suppressedCount = new AtomicLong();
+
+    /**
+     * @param sink receives every notification that is sent (HGController delivery)
+     */
+    public NotificationCoalescer(long windowMillis, long maxSpanMillis, Consumer<Notification> sink) {
+        if (windowMillis < 1 || maxSpanMillis < windowMillis) {
+            throw new IllegalArgumentException("Invalid coalescing window");
+        }
+        this.windowMillis = windowMillis;
+        this.maxSpanMillis = maxSpanMillis;
+        this.sink = sink;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hg-notify-coalesce");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(10, Math.min(1000, windowMillis / 4));
+        sweeper.scheduleWithFixedDelay(() -> sweep(System.currentTimeMillis()), period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send an alert to the recipient now, or count it as a repeat of one already sent.
+     * @return true if a notification was sent now
+     */
+    public boolean offer(User recipient, String deviceID, AlertType type, String message) {
+        if (type.getPriority() == NotificationPriority.EMERGENCY) {
+            sink.accept(new Notification(recipient, message, type.getPriority()));
+            return true;
+        }
+        String recipientID = recipient != null ? recipient.getUsername() : "SYSTEM";
+        String key = recipientID + '\u0000' + deviceID + '\u0000' + type.name();
+        long now = System.currentTimeMillis();
+
+        while (true) {
+            Window window = windows.computeIfAbsent(key, k -> new Window(recipient, type, now));
+            synchronized (window) {
+                if (window.closed) continue;            // Swept meanwhile; open a new one
+                if (!window.sent) {
+                    window.sent = true;                 // First alert of the window: send at once
+                    break;
+                }
+                window.repeats++;
+                window.lastTime = Math.max(window.lastTime, now);
+                if (window.repeats == 1) window.firstRepeatTime = now;
+                window.message = message;
+                suppressedCount.incrementAndGet();
+                return false;
+            }
+        }
+        sink.accept(new Notification(recipient, message, type.getPriority()));
+        return true;
+    }
+
+    /**
+     * Close windows that have gone quiet or been open too long, sending their repeats.
+     */
+    void sweep(long now) {
+        Iterator<Map.Entry<String, Window>> it = windows.entrySet().iterator();
+        while (it.hasNext()) {
+            Window window = it.next().getValue();
+            Notification summary = null;
+            synchronized (window) {
+                boolean quiet = now - window.lastTime >= windowMillis;
+                boolean expired = now - window.openTime >= maxSpanMillis;
+                if (!quiet && !expired) continue;
+                if (window.repeats > 0) {
+                    summary = window.summarize();
+                }
+                if (quiet) {
+                    window.closed = true;
+                    it.remove();
+                } else {
+                    window.reopen(now);     // Still flapping: keep counting into a new span
+                }
+            }
+            if (summary != null) sink.accept(summary);
+        }
+    }
+
+    /**
+     * Send every pending repeat now (e.g. on shutdown) and stop the sweeper.
+     */
+    public void shutdown() {
+        sweeper.shutdownNow();
+        sweep(Long.MAX_VALUE);
+    }
+
+    /** Alerts counted as repeats instead of being sent on their own */
+    public long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+
+    public int getOpenWindowCount() {
+        return windows.size();
+    }
+
+    // ---- WINDOW ----
+
+    private static final class Window {
+        final User recipient;
+        final AlertType type;
+        long openTime;
+        long lastTime;
+        long firstRepeatTime;
+        int repeats;            // Alerts counted since the last notification sent
+        String message;         // Latest repeat's text
+        boolean sent;           // The opening alert has been sent
+        boolean closed;
+
+        Window(User recipient, AlertType type, long now) {
+            this.recipient = recipient;
+            this.type = type;
+            this.openTime = now;
+            this.lastTime = now;
+        }
+
+        Notification summarize() {
+            Notification summary = new Notification(recipient, message, type.getPriority());
+            summary.setOccurrences(repeats, toDateTime(firstRepeatTime), toDateTime(lastTime));
+            return summary;
+        }
+
+        void reopen(long now) {
+            openTime = now;
+            repeats = 0;
+        }
+
+        private static LocalDateTime toDateTime(long millis) {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package homeguardian.system;
+
+/**
+ * Class: NotificationDispatcher
+ *
+ * Description:
+ * Delivers notifications asynchronously on every registered
+ * NotificationChannel, in priority order.
+ *
+ *  - Lanes: one queue per NotificationPriority. A worker always takes from
+ *    the highest non-empty lane. The SECURITY and INFO lanes are bounded;
+ *    when one is full, new notifications for it are dropped and counted.
+ *    The EMERGENCY lane is never bounded.
+ *  - Workers: a pool of general workers ("hg-notify-i") serving all lanes,
+ *    plus one worker ("hg-notify-emergency") serving only EMERGENCY. An
+ *    emergency therefore never waits behind a slow routine delivery, however
+ *    long the routine backlog is.
+ *  - Retry: each (notification, channel) pair is delivered on its own. A
+ *    channel that throws is retried after a backoff that doubles per attempt
+ *    (capped), up to maxAttempts; other channels are not resent.
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class NotificationDispatcher {
+
+    public static final int DEFAULT_WORKERS = 2;
+    public static final int DEFAULT_LANE_CAPACITY = 10_000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final long DEFAULT_BASE_BACKOFF_MILLIS = 200;
+    public static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private static final NotificationPriority[] PRIORITIES = NotificationPriority.values();
+
+    // ---- CONFIGURATION ----
+    private final int laneCapacity;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final List<NotificationChannel> channels = new CopyOnWriteArrayList<>();
+
+    // ---- LANES (guarded by lock) ----
+    private final List<ArrayDeque<Delivery>> lanes = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    private final Condition emergencyAvailable = lock.newCondition();
+    private boolean running = true;
+
+    // ---- WORKERS ----
+    private final List<Thread> workers = new ArrayList<>();
+    private final ScheduledExecutorService retryTimer;
+
+    // ---- STATISTICS ----
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong retriedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    public NotificationDispatcher() {
+        this(DEFAULT_WORKERS, DEFAULT_LANE_CAPACITY, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_BACKOFF_MILLIS);
+    }
+
+    /**
+     * @param workerCount general workers, in addition to the emergency worker
+     * @param laneCapacity bound of the SECURITY and INFO lanes
+     */
+    public NotificationDispatcher(int workerCount, int laneCapacity, int maxAttempts, long baseBackoffMillis) {
+        if (workerCount < 1 || laneCapacity < 1 || maxAttempts < 1 || baseBackoffMillis < 0) {
+            throw new IllegalArgumentException("Invalid notification dispatcher settings");
+        }
+        this.laneCapacity = laneCapacity;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            lanes.add(new ArrayDeque<>());
+        }
+
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "hg-notify-retry");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        this.retryTimer = timer;
+
+        startWorker("hg-notify-emergency", true);
+        for (int i = 0; i < workerCount; i++) {
+            startWorker("hg-notify-" + i, false);
+        }
+    }
+
+    private void startWorker(String name, boolean emergencyOnly) {
+        Thread worker = new Thread(() -> work(emergencyOnly), name);
+        worker.setDaemon(true);
+        workers.add(worker);
+        worker.start();
+    }
+
+    // ---- CHANNELS ----
+
+    public void addChannel(NotificationChannel channel) {
+        channels.add(channel);
+    }
+
+    public boolean removeChannel(NotificationChannel channel) {
+        return channels.remove(channel);
+    }
+
+    public List<NotificationChannel> getChannels() {
+        return List.copyOf(channels);
+    }
+
+    // ---- DISPATCH ----
+
+    /**
+     * Queue a notification for delivery on every channel, in its priority's lane.
+     * @return false if the lane was full and the notification was dropped
+     */
+    public boolean dispatch(Notification notification) {
+        NotificationPriority priority = notification.getPriority();
+        lock.lock();
+        try {
+            if (!running) return false;
+            ArrayDeque<Delivery> lane = lanes.get(priority.ordinal());
+            if (priority != NotificationPriority.EMERGENCY && lane.size() + channels.size() > laneCapacity) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            for (NotificationChannel channel : channels) {
+                lane.addLast(new Delivery(notification, channel, priority));
+            }
+            signal(priority);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signal(NotificationPriority priority) {
+        if (priority == NotificationPriority.EMERGENCY) {
+            emergencyAvailable.signal();
+        }
+        workAvailable.signal();
+    }
+
+    // ---- WORKERS ----
+
+    private void work(boolean emergencyOnly) {
+        while (true) {
+            Delivery delivery;
+            lock.lock();
+            try {
+                while ((delivery = next(emergencyOnly)) == null) {
+                    if (!running) return;
+                    (emergencyOnly ? emergencyAvailable : workAvailable).awaitUninterruptibly();
+                }
+            } finally {
+                lock.unlock();
+            }
+            attempt(delivery);
+        }
+    }
+
+    /**
+     * Next delivery from the highest non-empty lane (EMERGENCY only for the emergency worker).
+     */
+    private Delivery next(boolean emergencyOnly) {
+        int lanesServed = emergencyOnly ? 1 : lanes.size();
+        for (int i = 0; i < lanesServed; i++) {
+            Delivery delivery = lanes.get(i).pollFirst();
+            if (delivery != null) return delivery;
+        }
+        return null;
+    }
+
+    private void attempt(Delivery delivery) {
+        try {
+            delivery.channel.deliver(delivery.notification);
+            deliveredCount.incrementAndGet();
+        } catch (Exception e) {
+            delivery.attempts++;
+            if (delivery.attempts >= maxAttempts) {
+                failedCount.incrementAndGet();
+                Log.warn(LogCategory.NOTIFICATION, "Giving up on notification " + delivery.notification.getNotificationID()
+                        + " via " + delivery.channel.getName() + " after " + delivery.attempts + " attempts: " + e.getMessage());
+                return;
+            }
+            retriedCount.incrementAndGet();
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, baseBackoffMillis << Math.min(delivery.attempts - 1, 20));
+            try {
+                retryTimer.schedule(() -> requeue(delivery), backoff, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException shutDown) {
+                failedCount.incrementAndGet();
+            }
+        }
+    }
+
+    private void requeue(Delivery delivery) {
+        lock.lock();
+        try {
+            if (!running) return;
+            lanes.get(delivery.priority.ordinal()).addLast(delivery);
+            signal(delivery.priority);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting notifications; workers finish what is queued, pending retries are dropped.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            running = false;
+            workAvailable.signalAll();
+            emergencyAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        retryTimer.shutdownNow();
+    }
+
+    // ---- STATISTICS ----
+
+    public int getQueuedCount(NotificationPriority priority) {
+        lock.lock();
+        try {
+            return lanes.get(priority.ordinal()).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Deliveries that succeeded (one per notification and channel) */
+    public long getDeliveredCount() { return deliveredCount.get(); }
+    /** Failed attempts that were scheduled for another try */
+    public long getRetriedCount() { return retriedCount.get(); }
+    /** Deliveries abandoned after maxAttempts */
+    public long getFailedCount() { return failedCount.get(); }
+    /** Notifications refused because their lane was full */
+    public long getDroppedCount() { return droppedCount.get(); }
+
+    // ---- DELIVERY ----
+
+    private static final class Delivery {
+        final Notification notification;
+        final NotificationChannel channel;
+        final NotificationPriority priority;
+        int attempts;   // Failed attempts so far
+
+        Delivery(Notification notification, NotificationChannel channel, NotificationPriority priority) {
+            this.notification = notification;
+            this.channel = channel;
+            this.priority = priority;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package homeguardian.system;
+
+/**
+ * Class: NotificationInbox
+ *
+ * Description:
+ * The notifications of one recipient (Notification.getUserID()), kept by
+ * HGController next to the global history.
+ *
+ *  - A ring of the newest `capacity` notifications, in arrival order. Each
+ *    gets the next inbox sequence number, which is the paging cursor.
+ *  - Pages are newest first: page(before, limit) returns up to `limit`
+ *    notifications with a sequence below `before` (0 = from the newest),
+ *    found by index in the ring, so a page costs O(limit).
+ *  - The unread count is kept up to date on add, read and eviction.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+public class NotificationInbox {
+
+    public static final int DEFAULT_CAPACITY = 500;
+
+    private final String userID;
+    private final Notification[] ring;
+    private final HashMap<Long, Long> sequenceByID = new HashMap<>();     // Notification.getId() -> sequence
+    private long firstSequence = 1;     // Oldest retained
+    private long nextSequence = 1;      // Given to the next notification
+    private int unreadCount;
+
+    public NotificationInbox(String userID, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Inbox capacity must be at least 1");
+        }
+        this.userID = userID;
+        this.ring = new Notification[capacity];
+    }
+
+    public String getUserID() {
+        return userID;
+    }
+
+    /**
+     * Add a notification, evicting the oldest one when the inbox is full.
+     */
+    public synchronized void add(Notification notification) {
+        if (nextSequence - firstSequence == ring.length) {
+            Notification evicted = ring[slot(firstSequence)];
+            sequenceByID.remove(evicted.getId());
+            if (!evicted.isRead()) unreadCount--;
+            firstSequence++;
+        }
+        ring[slot(nextSequence)] = notification;
+        sequenceByID.put(notification.getId(), nextSequence);
+        nextSequence++;
+        if (!notification.isRead()) unreadCount++;
+    }
+
+    /**
+     * Newest notifications first, starting below the `before` sequence.
+     * @param before cursor from a previous page (getNextBefore()), or 0 for the newest
+     */
+    public synchronized NotificationPage page(long before, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be at least 1");
+        }
+        long start = (before <= 0 || before > nextSequence) ? nextSequence : before;
+        long end = Math.max(firstSequence, start - limit);
+        List<Notification> notifications = new ArrayList<>((int) Math.max(0, start - end));
+        for (long seq = start - 1; seq >= end; seq--) {
+            notifications.add(ring[slot(seq)]);
+        }
+        return new NotificationPage(userID, notifications, end, end > firstSequence, unreadCount);
+    }
+
+    public synchronized int getUnreadCount() {
+        return unreadCount;
+    }
+
+    public synchronized int size() {
+        return (int) (nextSequence - firstSequence);
+    }
+
+    /**
+     * @return false if the notification is not (or no longer) in this inbox
+     */
+    public boolean markRead(String notificationID) {
+        long id;
+        try {
+            id = IdGenerator.parse(notificationID);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return markRead(id);
+    }
+
+    public synchronized boolean markRead(long notificationID) {
+        Long seq = sequenceByID.get(notificationID);
+        if (seq == null) return false;
+        Notification notification = ring[slot(seq)];
+        if (!notification.isRead()) {
+            notification.setRead(true);
+            unreadCount--;
+        }
+        return true;
+    }
+
+    /**
+     * Mark everything read. Walks only while unread notifications remain.
+     */
+    public synchronized void markAllRead() {
+        for (long seq = nextSequence - 1; seq >= firstSequence && unreadCount > 0; seq--) {
+            Notification notification = ring[slot(seq)];
+            if (!notification.isRead()) {
+                notification.setRead(true);
+                unreadCount--;
+            }
+        }
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % ring.length);
+    }
+}
@@ -0,0 +1,42 @@
+package homeguardian.system;
+
+/**
+ * Class: NotificationPage
+ *
+ * Description:
+ * One page of a user's NotificationInbox ("INBOX"), newest first.
+ *
+ *  - nextBefore: pass this as "before" to get the next (older) page
+ *  - hasMore: older notifications remain in the inbox
+ *  - unreadCount: unread notifications in the whole inbox
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class NotificationPage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String userID;
+    private final ArrayList<Notification> notifications;
+    private final long nextBefore;
+    private final boolean hasMore;
+    private final int unreadCount;
+
+    public NotificationPage(String userID, List<Notification> notifications, long nextBefore, boolean hasMore,
+                            int unreadCount) {
+        this.userID = userID;
+        this.notifications = new ArrayList<>(notifications);
+        this.nextBefore = nextBefore;
+        this.hasMore = hasMore;
+        this.unreadCount = unreadCount;
+    }
+
+    public String getUserID() { return userID; }
+    public List<Notification> getNotifications() { return notifications; }
+    public long getNextBefore() { return nextBefore; }
+    public boolean hasMore() { return hasMore; }
+    public int getUnreadCount() { return unreadCount; }
+}
@@ -0,0 +1,14 @@
+package homeguardian.system;
+
+/**
+ * Class: NotificationPriority
+ *
+ * Description:
+ * Delivery lane of a Notification, highest first. The NotificationDispatcher
+ * always serves a higher lane before a lower one.
+ */
+public enum NotificationPriority {
+    EMERGENCY,      // Intrusion, emergency services contacted
+    SECURITY,       // Lock, alarm and camera events for admins
+    INFO            // Everything else
+}
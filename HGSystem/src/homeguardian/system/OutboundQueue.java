@@ -0,0 +1,159 @@
+package homeguardian.system;
+
+/**
+ * Class: OutboundQueue
+ *
+ * Description:
+ * Bounded queue of messages waiting to be written to one client.
+ * Senders only enqueue (no I/O happens under the queue lock); the
+ * connection's writer drains it. When the queue is full the configured
+ * OverflowPolicy decides what gives.
+ *
+ * Only broadcasts (offered with broadcast = true, e.g. SYNC updates) are
+ * ever dropped or coalesced: a client can recover from a missed broadcast
+ * with SYNC, but not from a missed reply to its own request. A reply that
+ * finds the queue full of other replies is refused, like DISCONNECT.
+ */
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+
+public class OutboundQueue {
+
+    private final ArrayDeque<Object> messages = new ArrayDeque<>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+
+    private long droppedCount;     // Broadcasts discarded by DROP_OLDEST / COALESCE
+    private long coalescedCount;   // Broadcasts merged into a newer one by COALESCE
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Add a message, applying the overflow policy if the queue is full.
+     * @param broadcast the message went to every client and may be dropped or coalesced
+     * @return false if the queue was full and the message must not be lost:
+     *         the policy is DISCONNECT, or a reply found no broadcast to drop
+     */
+    public synchronized boolean offer(Object msg, boolean broadcast) {
+        if (messages.size() >= capacity) {
+            if (policy == OverflowPolicy.DISCONNECT) {
+                return false;
+            }
+            if (policy == OverflowPolicy.COALESCE && broadcast && removeSameKey(msg)) {
+                coalescedCount++;
+            } else if (removeOldestBroadcast()) {
+                droppedCount++;
+            } else if (broadcast) {
+                droppedCount++; // Nothing older to drop: drop this one
+                return true;
+            } else {
+                return false;
+            }
+        }
+        messages.addLast(broadcast ? new Broadcast(msg) : msg);
+        return true;
+    }
+
+    public synchronized Object poll() {
+        return unwrap(messages.pollFirst());
+    }
+
+    /**
+     * Move every queued message into the given list.
+     */
+    public synchronized void drainTo(List<Object> batch) {
+        for (Object queued : messages) {
+            batch.add(unwrap(queued));
+        }
+        messages.clear();
+    }
+
+    public synchronized boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    public synchronized int size() {
+        return messages.size();
+    }
+
+    public synchronized void clear() {
+        messages.clear();
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    // ---- BROADCASTS ----
+
+    /** A queued broadcast; everything else in the queue is a reply */
+    private static final class Broadcast {
+        final Object msg;
+
+        Broadcast(Object msg) {
+            this.msg = msg;
+        }
+    }
+
+    private static Object unwrap(Object queued) {
+        return queued instanceof Broadcast ? ((Broadcast) queued).msg : queued;
+    }
+
+    private boolean removeOldestBroadcast() {
+        Iterator<Object> it = messages.iterator();
+        while (it.hasNext()) {
+            if (it.next() instanceof Broadcast) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ---- COALESCING ----
+
+    /**
+     * Remove the newest queued broadcast with the same coalescing key as msg.
+     */
+    private boolean removeSameKey(Object msg) {
+        if (!(msg instanceof String)) return false;
+        String text = (String) msg;
+        int keyLength = coalescingKeyLength(text);
+
+        Iterator<Object> it = messages.descendingIterator();
+        while (it.hasNext()) {
+            Object queued = it.next();
+            if (queued instanceof Broadcast && ((Broadcast) queued).msg instanceof String) {
+                String other = (String) ((Broadcast) queued).msg;
+                if (coalescingKeyLength(other) == keyLength
+                        && text.regionMatches(0, other, 0, keyLength)) {
+                    it.remove();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Messages are keyed by "VERB:DEVICE", i.e. the text up to the second ':'.
+     */
+    private static int coalescingKeyLength(String text) {
+        int first = text.indexOf(':');
+        if (first < 0) return text.length();
+        int second = text.indexOf(':', first + 1);
+        return second < 0 ? text.length() : second;
+    }
+}
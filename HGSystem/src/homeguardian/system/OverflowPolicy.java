@@ -0,0 +1,24 @@
+package homeguardian.system;
+
+/**
+ * Class: OverflowPolicy
+ *
+ * Description:
+ * What a ConnectionToClient does when its bounded outbound queue is full,
+ * i.e. the client is not reading as fast as the server is sending.
+ *
+ *  - DROP_OLDEST: discard the oldest queued broadcast to make room.
+ *  - DISCONNECT: close the connection; the client must reconnect and SYNC.
+ *  - COALESCE: replace a queued broadcast for the same verb and device
+ *    (e.g. an older "SYNC:D001") with the new one; if there is none,
+ *    fall back to DROP_OLDEST.
+ *
+ * Replies to a client's own requests are never dropped or coalesced. With
+ * DROP_OLDEST or COALESCE, a reply that finds no broadcast to make room
+ * for it closes the connection, as with DISCONNECT.
+ */
+public enum OverflowPolicy {
+    DROP_OLDEST,
+    DISCONNECT,
+    COALESCE
+}
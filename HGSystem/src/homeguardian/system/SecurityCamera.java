@@ -1,6 +1,13 @@
 package homeguardian.system;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.EnumSet;
+
 public class SecurityCamera extends Device{
+
+    private static final long serialVersionUID = 1L;
 	
 	// -------------------------
     // ATTRIBUTES
@@ -108,7 +115,7 @@ public class SecurityCamera extends Device{
                 + getDeviceName() + " (ID: " + getDeviceID() + "). Contacting emergency services...";
         addLog(message);
         notifyEvents(message);
-        // Later: integrate with ServerController.notifyEmergencyServices(message);
+        raiseAlert(AlertType.EMERGENCY, message);
     }
 
     // -------------------------
@@ -146,5 +153,31 @@ public class SecurityCamera extends Device{
     public boolean isEnabled() { return isEnabled; }
     public boolean isMotionSensorLinked() { return connectedTMS; }
     public int getZoomLevel() { return zoomLevel; }
-}
 
+    // -------------------------
+    // SNAPSHOT (ControllerSnapshot)
+    // -------------------------
+    SecurityCamera(DataInputStream in) throws IOException {
+        super(in);
+        this.isRecording = in.readBoolean();
+        this.isEnabled = in.readBoolean();
+        this.connectedTMS = in.readBoolean();
+        this.zoomLevel = in.readInt();
+    }
+
+    @Override
+    void writeState(DataOutputStream out) throws IOException {
+        super.writeState(out);
+        out.writeBoolean(isRecording);
+        out.writeBoolean(isEnabled);
+        out.writeBoolean(connectedTMS);
+        out.writeInt(zoomLevel);
+    }
+
+    @Override
+    protected void addStateFlags(EnumSet<DeviceFlag> flags) {
+        super.addStateFlags(flags);
+        if (isRecording) flags.add(DeviceFlag.RECORDING);
+        flags.add(isEnabled ? DeviceFlag.ENABLED : DeviceFlag.DISABLED);
+    }
+}
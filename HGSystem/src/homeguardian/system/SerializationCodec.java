@@ -0,0 +1,45 @@
+package homeguardian.system;
+
+/**
+ * Class: SerializationCodec
+ *
+ * Description:
+ * Legacy codec: every frame body is a self-contained Java serialization
+ * stream holding exactly one object. Used for framed clients that have not
+ * negotiated the binary protocol.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+public class SerializationCodec implements MessageCodec {
+
+    public static final SerializationCodec INSTANCE = new SerializationCodec();
+
+    @Override
+    public String getName() {
+        return "serialization";
+    }
+
+    @Override
+    public byte[] encode(Object msg) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(msg);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] data, int offset, int length) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(data, offset, length))) {
+            return ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class in frame", e);
+        }
+    }
+}
@@ -10,11 +10,77 @@ package homeguardian.system;
  * This class extends AbstractServer and implements a concrete server
  * for handling smart home device commands. It interacts with HGController
  * to control devices and manage client connections.
+ *
+ * State changes are announced to every client as "SYNC:<id>[,<id>...]".
+ * Changes within a short window are merged into one broadcast by a
+ * SyncCoalescer; alarms and locks are announced immediately.
+ *
+ * Commands ("[#rid:]VERB[:device]") are looked up in a CommandDispatcher:
+ *   TURN_ON, TURN_OFF                   SmartLight on/off
+ *   LOCK, UNLOCK, ARM, DISARM           SmartLock / Alarm
+ *   POWER_OFF, ENABLE_MS, DISABLE_MS,
+ *   TRIGGER_CAM, EMERGENCY              Alarm
+ *   ENABLE, DISABLE, RECORD, STOP,
+ *   ENABLE_MOTION, DISABLE_MOTION       SecurityCamera
+ *   ENABLE_SENSOR, DISABLE_SENSOR       SmartLight motion sensor
+ *   SYNC, SYNC since=<seq>              full or delta device state
+ *   BATCH:<id>=<cmd>,<id>=<cmd>,...     many device commands in one message
+ *   QUERY:<type>[:<flag>...]            IDs of matching devices, e.g.
+ *                                       "QUERY:Alarm:ARMED" -> "QUERY:D004,D009"
+ *                                       (type "*" matches any device)
+ *   LOGS[:<filter>,<filter>,...]        one LogPage of activity logs; filters
+ *                                       from=<ms>, to=<ms>, device=<id>,
+ *                                       user=<name>, after=<seq>, limit=<n>,
+ *                                       e.g. "LOGS:device=D002,from=1733100000000"
+ *                                       (pass the page's nextSequence as "after"
+ *                                       to read the next page)
+ *   INBOX:<user>[,before=<seq>][,limit=<n>]
+ *                                       one NotificationPage of the user's
+ *                                       inbox, newest first (pass the page's
+ *                                       nextBefore as "before" for older ones)
+ *   INBOX_READ:<user>[:<notificationId>] mark one (or every) notification
+ *                                       read; replies
+ *                                       "INBOX_READ:<user>:<unread count>"
+ *
+ * A BATCH runs every item even if some fail and answers with one result
+ * character per item, in order: "BATCH:1101" ('1' ok, '0' failed, '?'
+ * malformed item). Items are spread over the controller shards and run in
+ * parallel; all changed devices go out in one SYNC broadcast. A BATCH with
+ * a request ID is pipelined like a device command.
+ *
+ * Device commands carrying a request ID are pipelined: they are queued on
+ * the controller shard owning the device (controlDeviceAsync), so a client
+ * may send many before the first reply arrives and replies can come back
+ * out of order.
+ * Each connection may have at most maxInFlightPerConnection such requests
+ * outstanding; beyond that the request is rejected with its ID.
+ * Commands without a request ID are answered in order, as before. They
+ * are queued on the shards too, but the connection reads nothing more until
+ * the reply is sent (ConnectionToClient.holdUntil), so no thread - in
+ * particular no NIO selector thread - waits for a shard.
+ *
+ * Text replies to a request with an ID start with the same "#rid:" prefix;
+ * object replies (SYNC, LOGS, INBOX) come wrapped in a TaggedReply.
  */
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
 public class Server extends AbstractServer {
 
     private HGController controller; // Reference to the controller managing devices
+    private int syncPageSize = 500;  // Max devices per "SYNC since=" reply
+    private volatile SyncCoalescer syncCoalescer = new SyncCoalescer(this::sendToAllClients, 10, 64); // Replaced by setSyncCoalescing
+    private final CommandDispatcher commands = new CommandDispatcher();
+    private volatile int maxInFlightPerConnection = 64; // Pipelined requests per connection
+    private static final int MAX_BATCH_ITEMS = 1000;    // Items accepted in one BATCH
+    private static final int DEFAULT_LOG_PAGE = 100;    // Logs per LOGS page without limit=
+    private static final int MAX_LOG_PAGE = 1000;
+    private static final int DEFAULT_INBOX_PAGE = 20;   // Notifications per INBOX page without limit=
+    private static final int MAX_INBOX_PAGE = 200;
 
     /**
      * Constructor initializes the server with a port and controller
@@ -24,6 +90,317 @@ public class Server extends AbstractServer {
     public Server(int port, HGController controller) {
         super(port);          // Call parent constructor
         this.controller = controller;
+
+        // ---- Device commands: wire verb -> Device.executeCommand() command ----
+        registerDeviceCommand("TURN_ON", "ON");
+        registerDeviceCommand("TURN_OFF", "OFF");
+        for (String verb : new String[] {
+                "LOCK", "UNLOCK", "ARM", "DISARM",
+                "POWER_OFF", "ENABLE_MS", "DISABLE_MS", "TRIGGER_CAM", "EMERGENCY",
+                "ENABLE", "DISABLE", "RECORD", "STOP", "ENABLE_MOTION", "DISABLE_MOTION",
+                "ENABLE_SENSOR", "DISABLE_SENSOR" }) {
+            registerDeviceCommand(verb, verb);
+        }
+
+        commands.register("SYNC", this::handleSync);
+        commands.register("BATCH", this::handleBatch);
+        commands.register("QUERY", this::handleQuery);
+        commands.register("LOGS", this::handleLogs);
+        commands.register("INBOX", this::handleInbox);
+        commands.register("INBOX_READ", this::handleInboxRead);
+    }
+
+    /**
+     * Add (or replace) the handler for a command verb
+     */
+    public void registerCommand(String verb, CommandHandler handler) {
+        commands.register(verb, handler);
+    }
+
+    /**
+     * Register "VERB:<deviceId>", which runs deviceCommand on the device,
+     * replies "VERB:<deviceId>:<success>" and announces the change.
+     */
+    private void registerDeviceCommand(String verb, String deviceCommand) {
+        String replyPrefix = verb + ":";
+        commands.register(verb, (message, argStart, requestTag, client) -> {
+            if (argStart < 0) {
+                client.sendToClient(requestTag + "ERROR: Missing device ID");
+                return;
+            }
+            int end = message.indexOf(':', argStart);
+            String deviceId = message.substring(argStart, end < 0 ? message.length() : end);
+
+            if (requestTag.isEmpty()) {
+                // In order: reply once the shard has run it, reading nothing else meanwhile
+                client.holdUntil(controller.controlDeviceAsync(deviceId, deviceCommand).handle((success, error) -> {
+                    replyDeviceCommand(replyPrefix, deviceId, error == null && success, requestTag, client);
+                    return null;
+                }));
+                return;
+            }
+
+            // ---- Pipelined: queue on the device's shard, reply whenever done ----
+            if (!client.tryBeginRequest(maxInFlightPerConnection)) {
+                client.sendToClient(requestTag + "ERROR: Too many requests in flight");
+                return;
+            }
+            controller.controlDeviceAsync(deviceId, deviceCommand).whenComplete((success, error) -> {
+                client.endRequest(); // Free the slot before the client can see the reply
+                replyDeviceCommand(replyPrefix, deviceId, error == null && success, requestTag, client);
+            });
+        });
+    }
+
+    private void replyDeviceCommand(String replyPrefix, String deviceId, boolean success,
+                                    String requestTag, ConnectionToClient client) {
+        client.sendToClient(requestTag + replyPrefix + deviceId + ":" + success); // response to client
+        if (success) announceChange(deviceId); // update all clients
+    }
+
+    /**
+     * "BATCH:D001=ON,D002=LOCK" runs each device command and replies with
+     * one result per item ("BATCH:11"). Failures do not stop the batch.
+     */
+    private void handleBatch(String message, int argStart, String requestTag, ConnectionToClient client) {
+        if (argStart < 0 || argStart == message.length()) {
+            client.sendToClient(requestTag + "ERROR: Empty batch");
+            return;
+        }
+
+        // ---- Parse every item before running any, so an oversized batch changes nothing ----
+        List<String> deviceIds = new ArrayList<>();     // null = malformed item
+        List<String> deviceCommands = new ArrayList<>();
+        int start = argStart;
+        while (start <= message.length()) {
+            if (deviceIds.size() == MAX_BATCH_ITEMS) {
+                client.sendToClient(requestTag + "ERROR: Batch too large");
+                return;
+            }
+            int end = message.indexOf(',', start);
+            if (end < 0) end = message.length();
+            int eq = message.indexOf('=', start);
+
+            if (eq <= start || eq >= end - 1) {
+                deviceIds.add(null); // Malformed item, e.g. "D001" or "=ON"
+                deviceCommands.add(null);
+            } else {
+                deviceIds.add(message.substring(start, eq));
+                deviceCommands.add(message.substring(eq + 1, end));
+            }
+            start = end + 1;
+        }
+
+        if (!requestTag.isEmpty() && !client.tryBeginRequest(maxInFlightPerConnection)) {
+            client.sendToClient(requestTag + "ERROR: Too many requests in flight");
+            return;
+        }
+
+        List<CompletableFuture<Boolean>> outcomes = new ArrayList<>(deviceIds.size()); // null = malformed item
+        List<CompletableFuture<Boolean>> pending = new ArrayList<>(deviceIds.size());
+        for (int i = 0; i < deviceIds.size(); i++) {
+            String deviceId = deviceIds.get(i);
+            CompletableFuture<Boolean> outcome = deviceId == null ? null
+                    : controller.controlDeviceAsync(deviceId, deviceCommands.get(i)).exceptionally(e -> false);
+            outcomes.add(outcome);
+            if (outcome != null) pending.add(outcome);
+        }
+
+        // ---- Reply once every item has run ----
+        CompletableFuture<Void> done = CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+                .thenRun(() -> replyBatch(deviceIds, outcomes, requestTag, client));
+        if (requestTag.isEmpty()) {
+            client.holdUntil(done);
+        }
+    }
+
+    /**
+     * Send the results of a BATCH whose items have all completed, in item order.
+     */
+    private void replyBatch(List<String> deviceIds, List<CompletableFuture<Boolean>> outcomes,
+                            String requestTag, ConnectionToClient client) {
+        if (!requestTag.isEmpty()) {
+            client.endRequest(); // Free the slot before the client can see the reply
+        }
+        StringBuilder results = new StringBuilder(requestTag.length() + 6 + outcomes.size())
+                .append(requestTag).append("BATCH:");
+        List<String> changed = new ArrayList<>();
+        for (int i = 0; i < outcomes.size(); i++) {
+            CompletableFuture<Boolean> outcome = outcomes.get(i);
+            if (outcome == null) {
+                results.append('?');
+                continue;
+            }
+            boolean success = outcome.join(); // Already complete
+            results.append(success ? '1' : '0');
+            if (success) changed.add(deviceIds.get(i));
+        }
+
+        client.sendToClient(results.toString());
+        syncCoalescer.devicesChanged(changed); // One broadcast for the whole batch
+    }
+
+    /**
+     * "QUERY:SmartLock:UNLOCKED" replies with the matching device IDs,
+     * looked up in the controller's indexes.
+     */
+    private void handleQuery(String message, int argStart, String requestTag, ConnectionToClient client) {
+        if (argStart < 0 || argStart == message.length()) {
+            client.sendToClient(requestTag + "ERROR: Missing device type");
+            return;
+        }
+        String[] parts = message.substring(argStart).split(":");
+        String type = parts[0].equals("*") ? null : parts[0];
+        DeviceFlag[] flags = new DeviceFlag[parts.length - 1];
+        for (int i = 1; i < parts.length; i++) {
+            try {
+                flags[i - 1] = DeviceFlag.valueOf(parts[i].toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                client.sendToClient(requestTag + "ERROR: Unknown flag " + parts[i]);
+                return;
+            }
+        }
+
+        StringBuilder reply = new StringBuilder(requestTag).append("QUERY:");
+        boolean first = true;
+        for (Device device : controller.findDevices(type, flags)) {
+            if (!first) reply.append(',');
+            reply.append(device.getDeviceID());
+            first = false;
+        }
+        client.sendToClient(reply.toString());
+    }
+
+    /**
+     * "LOGS:device=D002,from=<ms>,to=<ms>" sends one LogPage of the matching
+     * activity logs, looked up in the log store's index.
+     */
+    private void handleLogs(String message, int argStart, String requestTag, ConnectionToClient client) {
+        long fromTime = Long.MIN_VALUE;
+        long toTime = Long.MAX_VALUE;
+        String deviceID = null;
+        String user = null;
+        long afterSequence = 0;
+        int limit = DEFAULT_LOG_PAGE;
+
+        if (argStart >= 0 && argStart < message.length()) {
+            for (String filter : message.substring(argStart).split(",")) {
+                int eq = filter.indexOf('=');
+                String key = eq < 0 ? filter : filter.substring(0, eq);
+                String value = eq < 0 ? "" : filter.substring(eq + 1);
+                try {
+                    switch (key) {
+                        case "from":   fromTime = Long.parseLong(value); break;
+                        case "to":     toTime = Long.parseLong(value); break;
+                        case "after":  afterSequence = Long.parseLong(value); break;
+                        case "limit":  limit = Integer.parseInt(value); break;
+                        case "device": deviceID = value; break;
+                        case "user":   user = value; break;
+                        default:
+                            client.sendToClient(requestTag + "ERROR: Unknown filter " + key);
+                            return;
+                    }
+                } catch (NumberFormatException e) {
+                    client.sendToClient(requestTag + "ERROR: Invalid " + key);
+                    return;
+                }
+            }
+        }
+        if (limit < 1 || limit > MAX_LOG_PAGE) {
+            client.sendToClient(requestTag + "ERROR: Invalid limit");
+            return;
+        }
+        replyObject(controller.queryLogs(fromTime, toTime, deviceID, user, afterSequence, limit), requestTag, client);
+    }
+
+    /**
+     * "INBOX:alice,before=<seq>,limit=<n>" sends one NotificationPage of the user's inbox.
+     */
+    private void handleInbox(String message, int argStart, String requestTag, ConnectionToClient client) {
+        if (argStart < 0 || argStart >= message.length()) {
+            client.sendToClient(requestTag + "ERROR: Missing user");
+            return;
+        }
+        String[] parts = message.substring(argStart).split(",");
+        long before = 0;
+        int limit = DEFAULT_INBOX_PAGE;
+        for (int i = 1; i < parts.length; i++) {
+            int eq = parts[i].indexOf('=');
+            String key = eq < 0 ? parts[i] : parts[i].substring(0, eq);
+            String value = eq < 0 ? "" : parts[i].substring(eq + 1);
+            try {
+                switch (key) {
+                    case "before": before = Long.parseLong(value); break;
+                    case "limit":  limit = Integer.parseInt(value); break;
+                    default:
+                        client.sendToClient(requestTag + "ERROR: Unknown filter " + key);
+                        return;
+                }
+            } catch (NumberFormatException e) {
+                client.sendToClient(requestTag + "ERROR: Invalid " + key);
+                return;
+            }
+        }
+        if (limit < 1 || limit > MAX_INBOX_PAGE) {
+            client.sendToClient(requestTag + "ERROR: Invalid limit");
+            return;
+        }
+        replyObject(controller.getInbox(parts[0], before, limit), requestTag, client);
+    }
+
+    /**
+     * "INBOX_READ:alice:<notificationId>" marks one notification read, "INBOX_READ:alice" all of them.
+     */
+    private void handleInboxRead(String message, int argStart, String requestTag, ConnectionToClient client) {
+        if (argStart < 0 || argStart >= message.length()) {
+            client.sendToClient(requestTag + "ERROR: Missing user");
+            return;
+        }
+        int colon = message.indexOf(':', argStart);
+        String user = message.substring(argStart, colon < 0 ? message.length() : colon);
+        if (colon < 0) {
+            controller.markAllNotificationsRead(user);
+        } else if (!controller.markNotificationRead(user, message.substring(colon + 1))) {
+            client.sendToClient(requestTag + "ERROR: Notification not found");
+            return;
+        }
+        client.sendToClient(requestTag + "INBOX_READ:" + user + ":" + controller.getUnreadCount(user));
+    }
+
+    /**
+     * "SYNC" sends every device; "SYNC since=<seq>" only what changed since then.
+     */
+    private void handleSync(String message, int argStart, String requestTag, ConnectionToClient client) {
+        // ---- SYNC all devices ----
+        if (argStart < 0) {
+            replyObject(new ArrayList<>(controller.getAllDevices()), requestTag, client); // send current device states
+            return;
+        }
+
+        // ---- SYNC only what changed since the client's last sequence ----
+        if (!message.startsWith("since=", argStart)) {
+            client.sendToClient(requestTag + "ERROR: Unknown command");
+            return;
+        }
+        long sinceSeq;
+        try {
+            sinceSeq = Long.parseLong(message.substring(argStart + 6).trim());
+        } catch (NumberFormatException e) {
+            client.sendToClient(requestTag + "ERROR: Invalid sequence");
+            return;
+        }
+        replyObject(controller.getChangesSince(sinceSeq, syncPageSize), requestTag, client);
+    }
+
+    /**
+     * Send an object reply, wrapped with the request ID when the request had one.
+     */
+    private static void replyObject(Serializable reply, String requestTag, ConnectionToClient client) {
+        if (requestTag.isEmpty()) {
+            client.sendToClient(reply);
+        } else {
+            client.sendToClient(new TaggedReply(requestTag.substring(1, requestTag.length() - 1), reply));
+        }
     }
 
     /**
@@ -37,13 +414,63 @@ public class Server extends AbstractServer {
         }
     }
 
+    /**
+     * Maximum number of devices returned in one "SYNC since=<seq>" page
+     */
+    public void setSyncPageSize(int syncPageSize) {
+        if (syncPageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1");
+        }
+        this.syncPageSize = syncPageSize;
+    }
+
+    /**
+     * Maximum number of pipelined (request ID) commands a single connection
+     * may have outstanding.
+     */
+    public void setMaxInFlightPerConnection(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("In-flight limit must be at least 1");
+        }
+        this.maxInFlightPerConnection = maxInFlight;
+    }
+
+    public int getMaxInFlightPerConnection() {
+        return maxInFlightPerConnection;
+    }
+
+    /**
+     * Configure how SYNC broadcasts are merged.
+     * @param windowMillis how long to collect changes before broadcasting (0 = no coalescing)
+     * @param maxBatch broadcast as soon as this many devices are pending
+     */
+    public void setSyncCoalescing(long windowMillis, int maxBatch) {
+        SyncCoalescer previous = syncCoalescer;
+        syncCoalescer = new SyncCoalescer(this::sendToAllClients, windowMillis, maxBatch);
+        previous.shutdown();
+    }
+
+    public SyncCoalescer getSyncCoalescer() {
+        return syncCoalescer;
+    }
+
     /**
      * Stop the server and close all client connections
      */
     public void stopServer() {
+        syncCoalescer.shutdown(); // Deliver pending SYNC updates first
         close(); // AbstractServer method to stop and clean up clients
     }
 
+    /**
+     * Announce a device change, immediately for safety-critical devices.
+     */
+    private void announceChange(String deviceId) {
+        Device device = controller.getDevice(deviceId);
+        boolean urgent = device instanceof Alarm || device instanceof SmartLock;
+        syncCoalescer.deviceChanged(deviceId, urgent);
+    }
+
     /**
      * Handle messages received from clients
      * @param msg Message from the client
@@ -58,32 +485,23 @@ public class Server extends AbstractServer {
 
         String message = (String) msg;
 
-        // ---- TURN ON SmartLight ----
-        if (message.startsWith("TURN_ON:")) {
-            String deviceId = message.substring(8);
-            boolean success = controller.controlDevice(deviceId, "ON"); // call controller
-            client.sendToClient("TURN_ON:" + deviceId + ":" + success); // response to client
-            sendToAllClients("SYNC:" + deviceId); // update all clients
-            return;
+        // ---- Optional request id ("#17:TURN_ON:D001"), echoed on the reply ----
+        String requestTag = "";
+        int verbStart = 0;
+        if (message.startsWith("#")) {
+            int colon = message.indexOf(':');
+            if (colon > 0) {
+                requestTag = message.substring(0, colon + 1);
+                verbStart = colon + 1;
+            }
         }
 
-        // ---- TURN OFF SmartLight ----
-        if (message.startsWith("TURN_OFF:")) {
-            String deviceId = message.substring(9);
-            boolean success = controller.controlDevice(deviceId, "OFF");
-            client.sendToClient("TURN_OFF:" + deviceId + ":" + success);
-            sendToAllClients("SYNC:" + deviceId);
-            return;
-        }
-
-        // ---- SYNC all devices ----
-        if (message.equals("SYNC")) {
-            client.sendToClient(controller.getAllDevices()); // send current device states
+        if (commands.dispatch(message, verbStart, requestTag, client)) {
             return;
         }
 
         // Unknown command
-        client.sendToClient("ERROR: Unknown command");
+        client.sendToClient(requestTag + "ERROR: Unknown command");
     }
 
     /**
@@ -100,5 +518,6 @@ public class Server extends AbstractServer {
     @Override
     protected void serverStopped() {
         System.out.println("Server stopped.");
+        System.out.println("[SYNC] " + syncCoalescer);
     }
 }
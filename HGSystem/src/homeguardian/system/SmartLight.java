@@ -1,7 +1,14 @@
 package homeguardian.system;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.EnumSet;
+
 public class SmartLight extends Device {
 
+    private static final long serialVersionUID = 1L;
+
 
     // ATTRIBUTES
    
@@ -122,4 +129,34 @@ public class SmartLight extends Device {
                 return super.handleCommand(command);
         }
     }
+
+    // -------------------------
+    // SNAPSHOT (ControllerSnapshot)
+    // -------------------------
+    SmartLight(DataInputStream in) throws IOException {
+        super(in);
+        this.brightness = in.readInt();
+        this.colour = ControllerSnapshot.readString(in);
+        this.isEnabled = in.readBoolean();
+        this.motionSensitivity = in.readInt();
+        this.timeoutDuration = in.readInt();
+        this.connectedTMS = in.readBoolean();
+    }
+
+    @Override
+    void writeState(DataOutputStream out) throws IOException {
+        super.writeState(out);
+        out.writeInt(brightness);
+        ControllerSnapshot.writeString(out, colour);
+        out.writeBoolean(isEnabled);
+        out.writeInt(motionSensitivity);
+        out.writeInt(timeoutDuration);
+        out.writeBoolean(connectedTMS);
+    }
+
+    @Override
+    protected void addStateFlags(EnumSet<DeviceFlag> flags) {
+        super.addStateFlags(flags);
+        flags.add(isEnabled ? DeviceFlag.ENABLED : DeviceFlag.DISABLED);
+    }
 }
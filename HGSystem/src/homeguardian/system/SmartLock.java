@@ -1,9 +1,16 @@
 package homeguardian.system;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 
 public class SmartLock extends Device {
+
+    private static final long serialVersionUID = 1L;
 	
 	// -------------------------
     // ATTRIBUTES
@@ -14,8 +21,10 @@ public class SmartLock extends Device {
     private int unlockDuration;    // how long (sec) the door stays unlocked (optional use)
 
     // Extra helpful attributes
-    private String ownerPasscode;
-    private final List<String> guestPasscodes;
+    // Passcodes stay on the server: they are not sent to clients on SYNC (transient),
+    // only saved in snapshots (writeState)
+    private transient String ownerPasscode;
+    private transient List<String> guestPasscodes;
     private String linkedAlarmId;  // alarm this lock is tied to
 
     // -------------------------
@@ -87,6 +96,7 @@ public class SmartLock extends Device {
         } else {
             addLog("Invalid guest passcode attempt.");
             notifyEvents("Invalid guest passcode used.");
+            raiseAlert(AlertType.INVALID_PASSCODE, "Invalid guest passcode used at lock " + getDeviceName());
             return false;
         }
     }
@@ -133,7 +143,7 @@ public class SmartLock extends Device {
                 + " (ID: " + getDeviceID() + "). Contacting emergency services.";
         addLog(message);
         notifyEvents(message);
-        // Later: call ServerController.notifyEmergencyServices(message);
+        raiseAlert(AlertType.EMERGENCY, message);
     }
 
     // -------------------------
@@ -196,6 +206,43 @@ public class SmartLock extends Device {
                 return super.handleCommand(command);
         }
     }
-	
 
+    // -------------------------
+    // SNAPSHOT (ControllerSnapshot)
+    // -------------------------
+    SmartLock(DataInputStream in) throws IOException {
+        super(in);
+        this.isLocked = in.readBoolean();
+        this.isEnabled = in.readBoolean();
+        this.lockDuration = in.readInt();
+        this.unlockDuration = in.readInt();
+        this.ownerPasscode = ControllerSnapshot.readString(in);
+        this.guestPasscodes = ControllerSnapshot.readStrings(in);
+        this.linkedAlarmId = ControllerSnapshot.readString(in);
+    }
+
+    @Override
+    void writeState(DataOutputStream out) throws IOException {
+        super.writeState(out);
+        out.writeBoolean(isLocked);
+        out.writeBoolean(isEnabled);
+        out.writeInt(lockDuration);
+        out.writeInt(unlockDuration);
+        ControllerSnapshot.writeString(out, ownerPasscode);
+        ControllerSnapshot.writeStrings(out, guestPasscodes);
+        ControllerSnapshot.writeString(out, linkedAlarmId);
+    }
+
+    // A copy received by a client has no passcodes
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.guestPasscodes = new ArrayList<>();
+    }
+
+    @Override
+    protected void addStateFlags(EnumSet<DeviceFlag> flags) {
+        super.addStateFlags(flags);
+        flags.add(isLocked ? DeviceFlag.LOCKED : DeviceFlag.UNLOCKED);
+        flags.add(isEnabled ? DeviceFlag.ENABLED : DeviceFlag.DISABLED);
+    }
 }
@@ -0,0 +1,190 @@
+package homeguardian.system;
+
+/**
+ * Class: SyncCoalescer
+ *
+ * Description:
+ * Merges device-change notifications into batched SYNC broadcasts.
+ * Changes arriving within windowMillis of the first pending one (or until
+ * maxBatch distinct devices are pending) go out as a single message:
+ *
+ *   "SYNC:D001"            one device changed
+ *   "SYNC:D001,D002,D007"  several devices changed
+ *
+ * Urgent changes (alarms, locks) flush the pending batch immediately,
+ * together with everything already waiting. A window of 0 disables
+ * coalescing. A bulk update (devicesChanged) is always sent right away as
+ * one message, however many devices it touched.
+ *
+ * Metrics: how many changes were reported, how many broadcasts were sent
+ * (the difference is the messages saved per client), and the latency added
+ * by waiting for the window.
+ */
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+public class SyncCoalescer {
+
+    // ---- CONFIGURATION ----
+    private final Consumer<String> broadcaster;  // Sends one message to every client
+    private final long windowMillis;
+    private final int maxBatch;
+
+    // ---- PENDING BATCH ----
+    private Set<String> pending = new LinkedHashSet<>();
+    private long pendingChangeTimeSum;       // Sum of change timestamps in the batch
+    private long firstPendingNanos;
+    private int pendingChanges;
+    private boolean flushScheduled;
+    private final ScheduledExecutorService timer;
+
+    // ---- METRICS ----
+    private long changeCount;
+    private long broadcastCount;
+    private long totalAddedLatencyNanos;
+    private long maxAddedLatencyNanos;
+
+    public SyncCoalescer(Consumer<String> broadcaster, long windowMillis, int maxBatch) {
+        if (windowMillis < 0 || maxBatch < 1) {
+            throw new IllegalArgumentException("Invalid coalescing window or batch size");
+        }
+        this.broadcaster = broadcaster;
+        this.windowMillis = windowMillis;
+        this.maxBatch = maxBatch;
+        this.timer = windowMillis == 0 ? null : Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hg-sync-coalescer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Report that a device changed.
+     * @param urgent flush right away (safety-critical devices)
+     */
+    public void deviceChanged(String deviceID, boolean urgent) {
+        String message = null;
+        synchronized (this) {
+            long now = System.nanoTime();
+            changeCount++;
+            pendingChanges++;
+            pendingChangeTimeSum += now;
+            if (pending.isEmpty()) {
+                firstPendingNanos = now;
+            }
+            pending.add(deviceID);
+
+            if (timer == null || urgent || pending.size() >= maxBatch) {
+                message = takeBatch(now);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                timer.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (message != null) {
+            broadcaster.accept(message);
+        }
+    }
+
+    /**
+     * Report a bulk update: all the devices, plus anything already pending,
+     * go out now in a single broadcast.
+     */
+    public void devicesChanged(Collection<String> deviceIDs) {
+        if (deviceIDs.isEmpty()) return;
+        String message;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (pending.isEmpty()) {
+                firstPendingNanos = now;
+            }
+            changeCount += deviceIDs.size();
+            pendingChanges += deviceIDs.size();
+            pendingChangeTimeSum += now * deviceIDs.size();
+            pending.addAll(deviceIDs);
+            message = takeBatch(now);
+        }
+        broadcaster.accept(message);
+    }
+
+    /**
+     * Send whatever is pending now.
+     */
+    public void flush() {
+        String message;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty()) return;
+            message = takeBatch(System.nanoTime());
+        }
+        broadcaster.accept(message);
+    }
+
+    /**
+     * Flush and stop the window timer.
+     */
+    public void shutdown() {
+        flush();
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    /**
+     * Build the batched message and update the metrics. Caller holds the lock.
+     */
+    private String takeBatch(long now) {
+        StringBuilder sb = new StringBuilder("SYNC:");
+        boolean first = true;
+        for (String id : pending) {
+            if (!first) sb.append(',');
+            sb.append(id);
+            first = false;
+        }
+
+        // Sum of (now - changeTime) over the batch
+        totalAddedLatencyNanos += now * pendingChanges - pendingChangeTimeSum;
+        maxAddedLatencyNanos = Math.max(maxAddedLatencyNanos, now - firstPendingNanos);
+        broadcastCount++;
+
+        pending = new LinkedHashSet<>();
+        pendingChanges = 0;
+        pendingChangeTimeSum = 0;
+        return sb.toString();
+    }
+
+    // ---- METRICS ----
+
+    public synchronized long getChangeCount() { return changeCount; }
+    public synchronized long getBroadcastCount() { return broadcastCount; }
+
+    /** Broadcasts avoided per connected client */
+    public synchronized long getMessagesSaved() {
+        return changeCount - broadcastCount - pendingChanges;
+    }
+
+    /** Mean delay between a change and its broadcast, in microseconds */
+    public synchronized long getAverageAddedLatencyMicros() {
+        long sent = changeCount - pendingChanges;
+        return sent == 0 ? 0 : totalAddedLatencyNanos / sent / 1000;
+    }
+
+    /** Longest delay between a change and its broadcast, in microseconds */
+    public synchronized long getMaxAddedLatencyMicros() {
+        return maxAddedLatencyNanos / 1000;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "changes=" + changeCount + ", broadcasts=" + broadcastCount
+                + ", saved per client=" + getMessagesSaved()
+                + ", added latency avg=" + getAverageAddedLatencyMicros() + "us"
+                + " max=" + getMaxAddedLatencyMicros() + "us";
+    }
+}
@@ -0,0 +1,49 @@
+package homeguardian.system;
+
+/**
+ * Class: SyncPage
+ *
+ * Description:
+ * One page of device changes returned for "SYNC since=<seq>".
+ *
+ *  - devices: devices changed after the requested sequence, in change order,
+ *    each at most once and in its current state
+ *  - removedDeviceIDs: devices removed after the requested sequence
+ *  - nextSeq: pass this as "since" for the next page / next sync
+ *  - hasMore: more changes are waiting beyond nextSeq
+ *  - fullSnapshot: the client was too far behind (or is new) and must discard
+ *    its cached devices; the pages that follow rebuild the full device list
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SyncPage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long sinceSeq;
+    private final long nextSeq;
+    private final boolean fullSnapshot;
+    private final boolean hasMore;
+    private final ArrayList<Device> devices;
+    private final ArrayList<String> removedDeviceIDs;
+
+    public SyncPage(long sinceSeq, long nextSeq, boolean fullSnapshot, boolean hasMore,
+                    List<Device> devices, List<String> removedDeviceIDs) {
+        this.sinceSeq = sinceSeq;
+        this.nextSeq = nextSeq;
+        this.fullSnapshot = fullSnapshot;
+        this.hasMore = hasMore;
+        this.devices = new ArrayList<>(devices);
+        this.removedDeviceIDs = new ArrayList<>(removedDeviceIDs);
+    }
+
+    public long getSinceSeq() { return sinceSeq; }
+    public long getNextSeq() { return nextSeq; }
+    public boolean isFullSnapshot() { return fullSnapshot; }
+    public boolean hasMore() { return hasMore; }
+    public List<Device> getDevices() { return devices; }
+    public List<String> getRemovedDeviceIDs() { return removedDeviceIDs; }
+}
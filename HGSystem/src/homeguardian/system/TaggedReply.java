@@ -0,0 +1,32 @@
+package homeguardian.system;
+
+/**
+ * Class: TaggedReply
+ *
+ * Description:
+ * An object reply (device list, SyncPage, LogPage, NotificationPage) to a
+ * request that carried a request ID ("#17:SYNC"). Text replies echo the
+ * "#17:" prefix; object replies come wrapped in a TaggedReply instead, so
+ * a pipelining client can match every reply to its request.
+ */
+
+import java.io.Serializable;
+
+public class TaggedReply implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String requestId;
+    private final Serializable reply;
+
+    /**
+     * @param requestId the request's ID, without "#" and ":" (e.g. "17")
+     */
+    public TaggedReply(String requestId, Serializable reply) {
+        this.requestId = requestId;
+        this.reply = reply;
+    }
+
+    public String getRequestId() { return requestId; }
+    public Serializable getReply() { return reply; }
+}
@@ -4,7 +4,6 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -36,9 +35,6 @@ public abstract class User {
     protected String email;
     protected String passwordHash;
 
-    // Each user has a personal activity log list
-    protected List<ActivityLog> userLogs;
-
     // -------------------------
        // CONSTRUCTOR
     // -------------------------
@@ -47,7 +43,6 @@ public abstract class User {
         this.username = username;
         this.email = email;
         this.passwordHash = passwordHash;
-        this.userLogs = new ArrayList<>();
     }
 
     // -------------------------
@@ -90,13 +85,13 @@ public abstract class User {
     // -------------------------
     // LOGGING SUPPORT
     // -------------------------
+    // Each user's log is a view of the shared ActivityLog store
     public void addUserLog(String message) {
-        ActivityLog log = new ActivityLog(message);
-        userLogs.add(log);
+        new ActivityLog(username, "User Action", "N/A", "N/A", message);
     }
 
     public List<ActivityLog> getUserLogs() {
-        return userLogs;
+        return ActivityLog.getUserLogs(username);
     }
 
     // -------------------------